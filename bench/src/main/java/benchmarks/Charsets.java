@@ -0,0 +1,36 @@
+package benchmarks;
+
+/**
+ * The charsets the benchmarks draw with, by name, so they can be JMH parameters.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+final class Charsets {
+    /** Number of printable ascii characters, from ' ' to '~'.*/
+    private static final int PRINTABLE = 95;
+
+    private Charsets() {
+    }
+
+    /**
+     * @param name "digits" (the shell's default), "letters" or "ascii" (every printable
+     *             character)
+     * @return the chars of the charset
+     */
+    static char[] of(String name) {
+        switch (name) {
+            case "digits":
+                return "0123456789".toCharArray();
+            case "letters":
+                return "abcdefghijklmnopqrstuvwxyz".toCharArray();
+            case "ascii":
+                char[] all = new char[PRINTABLE];
+                for (int i = 0; i < all.length; i++) {
+                    all[i] = (char) (' ' + i);
+                }
+                return all;
+            default:
+                throw new IllegalArgumentException("Unknown charset " + name);
+        }
+    }
+}
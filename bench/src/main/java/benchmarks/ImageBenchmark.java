@@ -0,0 +1,85 @@
+package benchmarks;
+
+import image.Image;
+import image.ImageProcessor;
+import image.SubImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages that depend on the image only: decoding in the
+ * {@link Image#Image(String)} constructor, padding, and building the brightness structures
+ * of an image.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageBenchmark {
+    /** Width x height of the image, deliberately not powers of two.*/
+    @Param({"1000x750", "3000x2000"})
+    public String size;
+
+    private int width;
+    private int height;
+    private int[] raster;
+    private Image image;
+    private File jpeg;
+    private File png;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] dims = size.split("x");
+        width = Integer.parseInt(dims[0]);
+        height = Integer.parseInt(dims[1]);
+        raster = SyntheticImages.gradient(width, height);
+        image = new Image(raster, width, height);
+        jpeg = SyntheticImages.gradientFile(width, height, "jpeg");
+        png = SyntheticImages.gradientFile(width, height, "png");
+    }
+
+    @Benchmark
+    public Image decodeJpeg() throws IOException {
+        return new Image(jpeg.getPath());
+    }
+
+    @Benchmark
+    public Image decodePng() throws IOException {
+        return new Image(png.getPath());
+    }
+
+    @Benchmark
+    public Image pad() {
+        return new ImageProcessor().padToPowerOfTwo(image);
+    }
+
+    @Benchmark
+    public double brightnessIntegral() {
+        // a fresh image over the same raster has no integral yet
+        Image fresh = new Image(raster, width, height);
+        return new SubImage(fresh, 0, 0, 1).calculateBrightness();
+    }
+
+    @Benchmark
+    public long brightnessPyramid() {
+        // a fresh image over the same raster has no pyramid yet
+        return new Image(raster, width, height).brightnessPyramid().memoryBytes();
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import ascii_art.RoundingMode;
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link SubImgCharMatcher#getCharByImageBrightness(double, RoundingMode)} under
+ * every rounding mode, for several charsets, with and without lookup tables. The time is
+ * per lookup, over a fixed array of random brightness values.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+    private static final int LOOKUPS = 1 << 16;
+    private static final long SEED = 42;
+
+    @Param({"digits", "letters", "ascii"})
+    public String charset;
+
+    @Param({"UP", "DOWN", "ABS"})
+    public RoundingMode mode;
+
+    /** Number of lookup table buckets, 0 for binary search only.*/
+    @Param({"0", "4096"})
+    public int buckets;
+
+    private SubImgCharMatcher matcher;
+    private double[] brightness;
+
+    @Setup
+    public void setUp() {
+        matcher = new SubImgCharMatcher(Charsets.of(charset));
+        matcher.setLookupTableBuckets(buckets);
+        Random random = new Random(SEED);
+        brightness = new double[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            brightness[i] = random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void lookup(Blackhole blackhole) {
+        for (double value : brightness) {
+            blackhole.consume(matcher.getCharByImageBrightness(value, mode));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import ascii_art.AsciiArtAlgorithm;
+import ascii_art.RoundingMode;
+import ascii_art.StreamingAsciiArtAlgorithm;
+import image.Image;
+import image.ImageProcessor;
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks whole runs of {@link AsciiArtAlgorithm#run()}, sequential and parallel, and
+ * of the {@link StreamingAsciiArtAlgorithm} straight from a JPEG file, across resolutions
+ * and charset sizes. Every run starts from an image with no cached brightness structure.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunBenchmark {
+    /** Width x height of the image, deliberately not powers of two.*/
+    @Param({"1000x750", "3000x2000"})
+    public String size;
+
+    @Param({"64", "256", "1024"})
+    public int resolution;
+
+    @Param({"digits", "letters", "ascii"})
+    public String charset;
+
+    private final ImageProcessor processor = new ImageProcessor();
+    private int width;
+    private int height;
+    private int[] raster;
+    private File jpeg;
+    private SubImgCharMatcher matcher;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] dims = size.split("x");
+        width = Integer.parseInt(dims[0]);
+        height = Integer.parseInt(dims[1]);
+        raster = SyntheticImages.gradient(width, height);
+        jpeg = SyntheticImages.gradientFile(width, height, "jpeg");
+        matcher = new SubImgCharMatcher(Charsets.of(charset));
+    }
+
+    @Benchmark
+    public char[][] sequential() {
+        return new AsciiArtAlgorithm(new Image(raster, width, height), resolution, processor,
+                matcher, RoundingMode.ABS).run();
+    }
+
+    @Benchmark
+    public char[][] parallel() {
+        return new AsciiArtAlgorithm(new Image(raster, width, height), resolution, processor,
+                matcher, RoundingMode.ABS, ForkJoinPool.commonPool()).run();
+    }
+
+    @Benchmark
+    public char[][] streaming() throws IOException {
+        return new StreamingAsciiArtAlgorithm(jpeg.getPath(), resolution, matcher, RoundingMode.ABS,
+                StreamingAsciiArtAlgorithm.AUTO_ROWS_PER_BAND).run();
+    }
+}
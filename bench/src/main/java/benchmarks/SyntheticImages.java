@@ -0,0 +1,81 @@
+package benchmarks;
+
+import image.Image;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates images for the benchmarks, so they run offline and on any machine.
+ * The sizes are deliberately not powers of two, so padding is exercised too.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+public final class SyntheticImages {
+    /** Seed of the noise, fixed so every run measures the same pixels.*/
+    private static final long SEED = 0x5EEDL;
+
+    /** Opaque alpha of a packed ARGB pixel.*/
+    private static final int OPAQUE = 0xFF000000;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * A diagonal gradient with some noise on top, the brightness covers the whole range
+     * so every char of a charset ends up being used.
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return the packed ARGB pixels, row after row
+     */
+    public static int[] gradient(int width, int height) {
+        Random random = new Random(SEED);
+        int[] raster = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int base = (int) (255L * (x + y) / (width + height));
+                int r = clamp(base + random.nextInt(32) - 16);
+                int g = clamp(base + random.nextInt(32) - 16);
+                int b = clamp(255 - base + random.nextInt(32) - 16);
+                raster[y * width + x] = OPAQUE | r << 16 | g << 8 | b;
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return a gradient image, see {@link #gradient(int, int)}
+     */
+    public static Image gradientImage(int width, int height) {
+        return new Image(gradient(width, height), width, height);
+    }
+
+    /**
+     * Writes a gradient image to a temporary file, for the decoding benchmarks.
+     * The file is deleted when the JVM exits.
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param format an ImageIO format name, e.g. "jpeg" or "png"
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File gradientFile(int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, gradient(width, height), 0, width);
+        File file = File.createTempFile("synthetic-" + width + "x" + height, "." + format);
+        file.deleteOnExit();
+        if (!ImageIO.write(image, format, file)) {
+            throw new IOException("No writer for " + format);
+        }
+        return file;
+    }
+
+    private static int clamp(int component) {
+        return Math.max(0, Math.min(255, component));
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import image.Image;
+import image.ImageProcessor;
+import image.SubImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks splitting a padded image into sub images, as a grid and through the
+ * flyweight visitor, and measuring the brightness of every sub image.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TilingBenchmark {
+    /** Width x height of the image, deliberately not powers of two.*/
+    @Param({"1000x750", "3000x2000"})
+    public String size;
+
+    @Param({"64", "256", "1024"})
+    public int resolution;
+
+    private final ImageProcessor processor = new ImageProcessor();
+    private Image padded;
+
+    @Setup
+    public void setUp() {
+        String[] dims = size.split("x");
+        Image image = SyntheticImages.gradientImage(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]));
+        padded = processor.padToPowerOfTwo(image);
+    }
+
+    @Benchmark
+    public SubImage[][] tileGrid() {
+        return processor.returnSubImages(padded, resolution);
+    }
+
+    @Benchmark
+    public void tileFlyweight(Blackhole blackhole) {
+        processor.forEachSubImage(padded, resolution, (row, col, subImage) -> blackhole.consume(subImage));
+    }
+
+    @Benchmark
+    public void brightnessTiles(Blackhole blackhole) {
+        processor.forEachSubImage(padded, resolution,
+                (row, col, subImage) -> blackhole.consume(subImage.calculateBrightness()));
+    }
+}
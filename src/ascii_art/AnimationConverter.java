@@ -0,0 +1,570 @@
+package ascii_art;
+
+import ascii_output.AnimationOutput;
+import ascii_output.DeltaFileAnimationOutput;
+import ascii_output.HtmlAnimationOutput;
+import ascii_output.TerminalAnimationOutput;
+import exceptions.InvalidFormatException;
+import image.FrameSequenceReader;
+import image.Image;
+import image.ImageProcessor;
+import image.TileHashes;
+import image_char_matching.CharsetSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts every frame of an animation, an animated GIF or a directory of numbered
+ * frames, to ascii art, and plays it in the terminal or writes it as an animated HTML page.
+ * <p>
+ * The frames go through a pipeline of four stages connected by bounded queues: a thread
+ * decodes the frames in order, a pool of workers computes their brightness grids, another
+ * pool maps the grids to chars, and the calling thread writes the frames out, putting them
+ * back in order first. Frames are therefore converted in parallel while the number of
+ * frames in memory stays bounded, and a slow stage, such as real-time playback, holds the
+ * others back instead of piling frames up. Every frame is drawn with the same immutable
+ * {@link CharsetSnapshot}. The throughput in frames per second is printed at the end.
+ * <p>
+ * Consecutive frames of an animation are mostly the same. The decoding thread hashes the
+ * pixels of every sub-image of a frame and compares them with the previous frame, the
+ * brightness workers measure only the sub-images that changed, and the writer copies the
+ * chars of the others from the previous frame it wrote. When a frame fails, the writer
+ * asks the decoding thread for a whole frame, and completes the partial frames already on
+ * their way from the one it last wrote, as long as the hashes show that none of the
+ * sub-images they did not measure differ from it. The outputs can also write only
+ * the changes: "delta" plays on the console by moving the cursor to the changed chars, and
+ * "file" writes a compact {@link DeltaFileAnimationOutput} file, which is replayed into any
+ * other output when given as the input.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see FrameSequenceReader
+ * @see BatchConverter
+ */
+public class AnimationConverter {
+    /** Usage message, printed when the arguments are malformed.*/
+    static final String USAGE = "Usage: java Shell --animate <gif|directory> [--res <n>] " +
+            "[--chars <spec,...>] [--round up|down|abs] [--output terminal|delta|file|html] [--out <file>] " +
+            "[--fps <n>] [--threads <n>]";
+
+    private static final String RES = "--res";
+    private static final String CHARS = "--chars";
+    private static final String ROUND = "--round";
+    private static final String OUTPUT = "--output";
+    private static final String OUT_FILE = "--out";
+    private static final String FPS = "--fps";
+    private static final String THREADS = "--threads";
+
+    private static final String TERMINAL = "terminal";
+    private static final String DELTA = "delta";
+    private static final String FILE = "file";
+    private static final String HTML = "html";
+    private static final String DEFAULT_HTML_FILE = "animation.html";
+    private static final String DEFAULT_DELTA_FILE = "animation.asca";
+
+    /** The extension of delta files, which are replayed instead of converted.*/
+    private static final String DELTA_EXTENSION = ".asca";
+    private static final String HTML_FONT = "Courier New";
+    private static final String WRITE_ERROR = "Failed to write the animation.";
+
+    private static final int DEFAULT_RESOLUTION = 64;
+    private static final String DEFAULT_CHARSET = "0-9";
+    private static final int MIN_CHARS = 2;
+    private static final int LOOKUP_BUCKETS = 4096;
+    private static final int QUEUED_PER_WORKER = 2;
+    private static final int MILLIS_PER_SECOND = 1000;
+    private static final double PERCENT = 100.0;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** Marks the end of the frames in a queue.*/
+    private static final Frame END = new Frame(-1, null, 0);
+
+    private final String input;
+    private final int resolution;
+    private final CharsetSnapshot charset;
+    private final RoundingMode roundingMode;
+    private final String output;
+
+    /** The file the animation is written to, null to play it on the console.*/
+    private final String outputFile;
+
+    /** The delay of every frame, 0 to keep the delays of the animation.*/
+    private final int frameDelayMillis;
+    private final int threads;
+
+    /** Why the frames stopped being decoded, null if they all were.*/
+    private volatile IOException decodeError;
+
+    /** A malformed frame that stopped the decoding, null if none did.*/
+    private volatile RuntimeException decodeFailure;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /** Set by the writer when a frame fails, so the next frame is decoded as a whole one.*/
+    private final AtomicBoolean resync = new AtomicBoolean();
+
+    /** The sub-images whose chars were copied from the previous frame, and all of them.*/
+    private final AtomicLong reusedTiles = new AtomicLong();
+    private final AtomicLong totalTiles = new AtomicLong();
+
+    /**
+     * A frame on its way through the pipeline, filled in stage after stage.
+     */
+    private static final class Frame {
+        private final int index;
+        private final int delayMillis;
+        private Image image;
+        private AsciiArtAlgorithm algorithm;
+        private double[][] brightness;
+
+        /** The sub-images that changed since the previous frame, null when all of them did.*/
+        private boolean[] changed;
+
+        /** The hashes of the sub-images, kept until the frame is written.*/
+        private TileHashes hashes;
+        private char[][] board;
+        private RuntimeException failure;
+
+        private Frame(int index, Image image, int delayMillis) {
+            this.index = index;
+            this.image = image;
+            this.delayMillis = delayMillis;
+        }
+    }
+
+    /**
+     * Constructs an animation conversion.
+     * @param input            an animated image file or a directory of numbered frames
+     * @param resolution       the number of chars per row
+     * @param charset          the charset every frame is drawn with
+     * @param roundingMode     the rounding mode used to select chars
+     * @param output           "terminal", "delta", "file" or "html"
+     * @param outputFile       the file the animation is written to, or null to play a
+     *                         terminal or delta animation on the console in real time
+     * @param frameDelayMillis the delay of every frame, 0 to keep those of the animation
+     * @param threads          the number of workers of each parallel stage
+     */
+    public AnimationConverter(String input, int resolution, CharsetSnapshot charset,
+                              RoundingMode roundingMode, String output, String outputFile,
+                              int frameDelayMillis, int threads) {
+        this.input = input;
+        this.resolution = resolution;
+        this.charset = charset;
+        this.roundingMode = roundingMode;
+        this.output = output;
+        this.outputFile = outputFile;
+        this.frameDelayMillis = frameDelayMillis;
+        this.threads = threads;
+    }
+
+    /**
+     * Converts and writes all the frames, then prints the throughput.
+     * @throws IOException if the animation cannot be opened, a frame cannot be decoded or
+     *                     the output cannot be written
+     * @throws InterruptedException if interrupted while waiting for the pipeline
+     * @throws RuntimeException if a frame is malformed, such as a GIF frame with bad
+     *                          metadata; the frames before it are still written
+     */
+    public void run() throws IOException, InterruptedException {
+        if (input.endsWith(DELTA_EXTENSION)) {
+            replay();
+            return;
+        }
+        try (FrameSequenceReader frames = new FrameSequenceReader(input)) {
+            BatchConverter.checkResolution(frames.getWidth(), frames.getHeight(), resolution);
+            int capacity = threads * QUEUED_PER_WORKER;
+            BlockingQueue<Frame> decoded = new ArrayBlockingQueue<>(capacity);
+            BlockingQueue<Frame> measured = new ArrayBlockingQueue<>(capacity);
+            BlockingQueue<Frame> mapped = new ArrayBlockingQueue<>(capacity);
+
+            List<Thread> stages = new ArrayList<>();
+            stages.add(new Thread(() -> decode(frames, decoded), "animation-decode"));
+            AtomicInteger measuring = new AtomicInteger(threads);
+            AtomicInteger mapping = new AtomicInteger(threads);
+            for (int i = 0; i < threads; i++) {
+                stages.add(new Thread(() -> measure(decoded, measured, measuring),
+                        "animation-brightness-" + i));
+                stages.add(new Thread(() -> map(measured, mapped, mapping), "animation-map-" + i));
+            }
+            PrintStream file = outputFile != null && (output.equals(TERMINAL) || output.equals(DELTA)) ?
+                    new PrintStream(new FileOutputStream(outputFile)) : null;
+            long start = System.nanoTime();
+            for (Thread stage : stages) {
+                stage.setDaemon(true);
+                stage.start();
+            }
+            AnimationOutput out = createOutput(file);
+            int written;
+            try {
+                written = encode(mapped, out);
+            } finally {
+                if (file != null) {
+                    file.close();
+                }
+            }
+            for (Thread stage : stages) {
+                stage.join();
+            }
+            checkWritten(out);
+            printSummary(written, System.nanoTime() - start);
+            if (decodeError != null) {
+                throw decodeError;
+            }
+            if (decodeFailure != null) {
+                throw decodeFailure;
+            }
+        }
+    }
+
+    /**
+     * Writes the frames of a delta file to the output, without converting anything.
+     */
+    private void replay() throws IOException {
+        PrintStream file = outputFile != null && (output.equals(TERMINAL) || output.equals(DELTA)) ?
+                new PrintStream(new FileOutputStream(outputFile)) : null;
+        long start = System.nanoTime();
+        AnimationOutput out = createOutput(file);
+        int frames;
+        try {
+            frames = DeltaFileAnimationOutput.replay(input, out);
+        } finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+        checkWritten(out);
+        printSummary(frames, System.nanoTime() - start);
+    }
+
+    /**
+     * Throws if the output failed to write the animation, so that a conversion that wrote
+     * nothing, or only part of the frames, is not reported as a success.
+     * @throws IOException if a write failed
+     */
+    private static void checkWritten(AnimationOutput out) throws IOException {
+        if (out.checkError()) {
+            throw new IOException(WRITE_ERROR);
+        }
+    }
+
+    private AnimationOutput createOutput(PrintStream file) {
+        switch (output) {
+            case HTML:
+                return new HtmlAnimationOutput(outputFile == null ? DEFAULT_HTML_FILE : outputFile,
+                        HTML_FONT);
+            case FILE:
+                return new DeltaFileAnimationOutput(outputFile == null ? DEFAULT_DELTA_FILE : outputFile);
+            default:
+                boolean delta = output.equals(DELTA);
+                return file == null ? new TerminalAnimationOutput(System.out, true, delta) :
+                        new TerminalAnimationOutput(file, false, delta);
+        }
+    }
+
+    /**
+     * First stage: decodes the frames in order and finds the sub-images that changed since
+     * the previous frame, or treats all of them as changed after the writer dropped a frame.
+     * Whatever happens, every worker of the next stage is eventually
+     * told that there are no more frames.
+     */
+    private void decode(FrameSequenceReader frames, BlockingQueue<Frame> decoded) {
+        try {
+            int index = 0;
+            TileHashes previous = null;
+            for (Image image = frames.nextFrame(); image != null; image = frames.nextFrame()) {
+                int delay = frameDelayMillis > 0 ? frameDelayMillis : frames.getDelayMillis();
+                Frame frame = new Frame(index++, image, delay);
+                TileHashes hashes = new TileHashes(image, resolution);
+                boolean[] changed = hashes.changedSince(resync.getAndSet(false) ? null : previous);
+                if (!allTrue(changed)) {
+                    frame.changed = changed;
+                }
+                frame.hashes = hashes;
+                previous = hashes;
+                decoded.put(frame);
+            }
+        } catch (IOException e) {
+            decodeError = e;
+        } catch (RuntimeException e) {
+            decodeFailure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            endStage(decoded, threads);
+        }
+    }
+
+    private static boolean allTrue(boolean[] values) {
+        for (boolean value : values) {
+            if (!value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Second stage: computes the brightness grid of every frame, or of the sub-images that
+     * changed when only some did.
+     */
+    private void measure(BlockingQueue<Frame> decoded, BlockingQueue<Frame> measured,
+                         AtomicInteger running) {
+        try {
+            for (Frame frame = decoded.take(); frame != END; frame = decoded.take()) {
+                try {
+                    if (frame.changed == null) {
+                        frame.algorithm = new AsciiArtAlgorithm(frame.image, resolution,
+                                new ImageProcessor(), charset, roundingMode, null, null);
+                        frame.brightness = frame.algorithm.computeBrightnessGrid();
+                    } else {
+                        frame.brightness = frame.hashes.brightnessGrid(frame.image, frame.changed);
+                    }
+                } catch (RuntimeException e) {
+                    frame.failure = e;
+                }
+                frame.image = null;
+                measured.put(frame);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0) {
+                endStage(measured, threads);
+            }
+        }
+    }
+
+    /**
+     * Third stage: maps the brightness grid of every frame to chars. The sub-images that
+     * did not change are left for the writer to fill in.
+     */
+    private void map(BlockingQueue<Frame> measured, BlockingQueue<Frame> mapped,
+                     AtomicInteger running) {
+        try {
+            for (Frame frame = measured.take(); frame != END; frame = measured.take()) {
+                if (frame.failure == null) {
+                    try {
+                        frame.board = frame.algorithm != null ?
+                                frame.algorithm.mapToChars(frame.brightness) :
+                                mapChanged(frame.brightness, frame.changed);
+                    } catch (RuntimeException e) {
+                        frame.failure = e;
+                    }
+                }
+                frame.algorithm = null;
+                frame.brightness = null;
+                mapped.put(frame);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0) {
+                endStage(mapped, 1);
+            }
+        }
+    }
+
+    private char[][] mapChanged(double[][] brightness, boolean[] changed) {
+        char[][] board = new char[brightness.length][resolution];
+        for (int i = 0; i < brightness.length; i++) {
+            for (int j = 0; j < resolution; j++) {
+                if (changed[i * resolution + j]) {
+                    board[i][j] = charset.getCharByImageBrightness(brightness[i][j], roundingMode);
+                }
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Last stage, on the calling thread: writes the frames in their original order,
+     * copying the chars of the sub-images that did not change from the last frame written.
+     * Frames that failed are reported and skipped, and the decoding thread is asked for a
+     * whole frame next. A partial frame that follows a skipped one is written only if none
+     * of the sub-images it did not measure differ from the last frame written.
+     * @return the number of frames written
+     */
+    private int encode(BlockingQueue<Frame> mapped, AnimationOutput out) throws InterruptedException {
+        Map<Integer, Frame> pending = new HashMap<>();
+        int next = 0;
+        boolean begun = false;
+        char[][] previous = null;
+        TileHashes previousHashes = null;
+        int previousIndex = -1;
+        for (Frame frame = mapped.take(); frame != END; frame = mapped.take()) {
+            pending.put(frame.index, frame);
+            for (Frame ready = pending.remove(next); ready != null; ready = pending.remove(next)) {
+                next++;
+                if (ready.failure == null && ready.changed != null &&
+                        ready.index != previousIndex + 1 &&
+                        !unchangedSince(ready, previousHashes)) {
+                    ready.failure = new IllegalStateException("the previous frame is missing");
+                }
+                if (ready.failure != null) {
+                    failures.incrementAndGet();
+                    System.err.println("Frame " + ready.index + ": " + ready.failure.getMessage());
+                    resync.set(true);
+                    continue;
+                }
+                totalTiles.addAndGet((long) ready.board.length * resolution);
+                if (ready.changed != null) {
+                    reusedTiles.addAndGet(copyUnchanged(previous, ready.board, ready.changed));
+                }
+                previous = ready.board;
+                previousHashes = ready.hashes;
+                previousIndex = ready.index;
+                if (!begun) {
+                    out.begin(ready.board.length, resolution);
+                    begun = true;
+                }
+                out.writeFrame(ready.board, ready.delayMillis);
+            }
+        }
+        if (begun) {
+            out.end();
+        }
+        return next - failures.get();
+    }
+
+    /**
+     * Tells whether the sub-images a partial frame did not measure are the same as in a frame
+     * written before, which need not be the one right before it.
+     * @param written the hashes of the frame written, null if none was
+     */
+    private static boolean unchangedSince(Frame frame, TileHashes written) {
+        boolean[] changed = frame.hashes.changedSince(written);
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i] && !frame.changed[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the chars of the sub-images that did not change from the previous frame.
+     * @return the number of chars copied
+     */
+    private int copyUnchanged(char[][] previous, char[][] board, boolean[] changed) {
+        int copied = 0;
+        for (int i = 0; i < board.length; i++) {
+            for (int j = 0; j < resolution; j++) {
+                if (!changed[i * resolution + j]) {
+                    board[i][j] = previous[i][j];
+                    copied++;
+                }
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Tells the workers of the next stage that there are no more frames.
+     */
+    private static void endStage(BlockingQueue<Frame> queue, int workers) {
+        try {
+            for (int i = 0; i < workers; i++) {
+                queue.put(END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void printSummary(int frames, long elapsedNanos) {
+        double seconds = elapsedNanos / NANOS_PER_SECOND;
+        long tiles = totalTiles.get();
+        System.out.println(String.format(Locale.ROOT,
+                "Converted %d frames (%d failed) in %.2f s: %.2f frames/s, %.1f%% of chars reused",
+                frames, failures.get(), seconds, frames / seconds,
+                tiles == 0 ? 0 : PERCENT * reusedTiles.get() / tiles));
+    }
+
+    /**
+     * Entry point of the animation mode, see {@link #USAGE}.
+     * @param args the command-line arguments, without the leading "--animate"
+     */
+    public static void main(String[] args) {
+        try {
+            parse(args).run();
+        } catch (InvalidFormatException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+        } catch (IOException | RuntimeException e) {
+            System.out.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Builds an animation conversion from command-line arguments.
+     * @param args the arguments, without the leading "--animate"
+     * @return the animation conversion
+     * @throws InvalidFormatException if an argument is malformed
+     */
+    static AnimationConverter parse(String[] args) throws InvalidFormatException {
+        if (args.length == 0 || args.length % 2 == 0) {
+            throw new InvalidFormatException("Expected an input followed by option/value pairs.");
+        }
+        int resolution = DEFAULT_RESOLUTION;
+        String charset = DEFAULT_CHARSET;
+        RoundingMode roundingMode = RoundingMode.ABS;
+        String output = TERMINAL;
+        String outputFile = null;
+        int frameDelayMillis = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case RES:
+                    resolution = BatchConverter.parsePositive(value, RES);
+                    break;
+                case CHARS:
+                    charset = value;
+                    break;
+                case ROUND:
+                    roundingMode = BatchConverter.parseRoundingMode(value);
+                    break;
+                case OUTPUT:
+                    if (!value.equals(TERMINAL) && !value.equals(DELTA) && !value.equals(FILE) &&
+                            !value.equals(HTML)) {
+                        throw new InvalidFormatException("Bad output " + value);
+                    }
+                    output = value;
+                    break;
+                case OUT_FILE:
+                    outputFile = value;
+                    break;
+                case FPS:
+                    frameDelayMillis = Math.max(1,
+                            MILLIS_PER_SECOND / BatchConverter.parsePositive(value, FPS));
+                    break;
+                case THREADS:
+                    threads = BatchConverter.parsePositive(value, THREADS);
+                    break;
+                default:
+                    throw new InvalidFormatException("Unknown option " + args[i]);
+            }
+        }
+        SubImgCharMatcher charMatcher = new SubImgCharMatcher(BatchConverter.parseCharset(charset));
+        charMatcher.setLookupTableBuckets(LOOKUP_BUCKETS);
+        CharsetSnapshot snapshot = charMatcher.snapshot();
+        if (snapshot.size() <= MIN_CHARS) {
+            throw new InvalidFormatException("Charset is too small.");
+        }
+        return new AnimationConverter(args[0], resolution, snapshot, roundingMode, output,
+                outputFile, frameDelayMillis, threads);
+    }
+}
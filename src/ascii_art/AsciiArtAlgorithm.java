@@ -1,17 +1,37 @@
 package ascii_art;
+import ascii_output.AsciiOutput;
+import ascii_output.ColorAsciiOutput;
+import image.BrightnessPyramid;
 import image.Image;
 import image.ImageProcessor;
-import image.SubImage;
+import image.SubImageConsumer;
+import image_char_matching.CharsetSnapshot;
 import image_char_matching.SubImgCharMatcher;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 
 /**
  * Class whose purpose is to return a 2d array representing the ascii art
+ * <p>
+ * The work is done in two stages that can also be called on their own:
+ * {@link #computeBrightnessGrid()} reads the pixels and depends only on the image and
+ * the resolution, and {@link #mapToChars(double[][])} turns the grid into chars using the
+ * charset and the rounding mode. A grid can be kept and mapped again by an algorithm with
+ * another charset or rounding mode, which costs a lookup per sub image and no pixel reads.
+ * <p>
+ * The algorithm draws with an immutable {@link CharsetSnapshot} taken when it is
+ * constructed, so the matcher it came from can be edited meanwhile, and several algorithms
+ * can share one snapshot on different threads.
  * @author  Ishay Shaul
  * @author Maoz Bar Shimon
  * @see Shell
  */
 public class AsciiArtAlgorithm {
+    /** How many bands each worker of the pool gets on average, more bands balance the load better.*/
+    private static final int BANDS_PER_WORKER = 4;
+
     /** The image that is being drawn.*/
     private final Image image;
 
@@ -21,12 +41,18 @@ public class AsciiArtAlgorithm {
     /** Allows manipulation on the image such as padding and getting sub images.*/
     private final ImageProcessor imageProcessor;
 
-    /** Allows adding and removing characters.*/
-    private final SubImgCharMatcher charMatcher;
+    /** The characters the art is drawn with, as they were when the algorithm was built.*/
+    private final CharsetSnapshot charset;
 
     /** The formula used for finding nearest brightness.*/
     private final RoundingMode roundingMode;
 
+    /** The pool that evaluates bands of rows in parallel, or null to run sequentially.*/
+    private final ForkJoinPool pool;
+
+    /** Cache of earlier boards and brightness grids, or null to always compute them.*/
+    private final RenderCache cache;
+
     /**
      * Constructs an asciiArtAlgorithm, in order to receive the representative 2d array
      * @param image             Image converted to ascii art
@@ -37,39 +63,276 @@ public class AsciiArtAlgorithm {
      */
     public AsciiArtAlgorithm(Image image, int resolutionsPerRow,
                       ImageProcessor imageProcessor, SubImgCharMatcher charMatcher, RoundingMode roundingMode) {
+        this(image, resolutionsPerRow, imageProcessor, charMatcher, roundingMode, null);
+    }
+
+    /**
+     * Constructs an asciiArtAlgorithm that evaluates the sub images in parallel.
+     * The rows of the board are split into bands which are run on the given pool, the
+     * result is the same as the one of the sequential algorithm.
+     * @param image             Image converted to ascii art
+     * @param resolutionsPerRow How many pixels will be per row
+     * @param imageProcessor    Allows us to prepare the image for the algorithm
+     * @param charMatcher       Measures brightness, as well as adding and removing chars
+     * @param roundingMode      The rounding mode used to select chars based on brightness values.
+     * @param pool              The pool to run on, null runs sequentially on the calling thread
+     */
+    public AsciiArtAlgorithm(Image image, int resolutionsPerRow, ImageProcessor imageProcessor,
+                             SubImgCharMatcher charMatcher, RoundingMode roundingMode, ForkJoinPool pool) {
+        this(image, resolutionsPerRow, imageProcessor, charMatcher, roundingMode, pool, null);
+    }
+
+    /**
+     * Constructs an asciiArtAlgorithm that looks its results up in a cache first.
+     * A render that was already done is served from the cache, and a render that only
+     * differs in the charset or the rounding mode reuses the cached brightness of the
+     * sub images.
+     * @param image             Image converted to ascii art
+     * @param resolutionsPerRow How many pixels will be per row
+     * @param imageProcessor    Allows us to prepare the image for the algorithm
+     * @param charMatcher       Measures brightness, as well as adding and removing chars
+     * @param roundingMode      The rounding mode used to select chars based on brightness values.
+     * @param pool              The pool to run on, null runs sequentially on the calling thread
+     * @param cache             The cache of earlier results, null to always compute them
+     */
+    public AsciiArtAlgorithm(Image image, int resolutionsPerRow, ImageProcessor imageProcessor,
+                             SubImgCharMatcher charMatcher, RoundingMode roundingMode, ForkJoinPool pool,
+                             RenderCache cache) {
+        this(image, resolutionsPerRow, imageProcessor, charMatcher.snapshot(), roundingMode, pool,
+                cache);
+    }
+
+    /**
+     * Constructs an asciiArtAlgorithm over a snapshot of a charset, which can be shared by
+     * any number of algorithms running at once.
+     * @param image             Image converted to ascii art
+     * @param resolutionsPerRow How many pixels will be per row
+     * @param imageProcessor    Allows us to prepare the image for the algorithm
+     * @param charset           The characters to draw with
+     * @param roundingMode      The rounding mode used to select chars based on brightness values.
+     * @param pool              The pool to run on, null runs sequentially on the calling thread
+     * @param cache             The cache of earlier results, null to always compute them
+     */
+    public AsciiArtAlgorithm(Image image, int resolutionsPerRow, ImageProcessor imageProcessor,
+                             CharsetSnapshot charset, RoundingMode roundingMode, ForkJoinPool pool,
+                             RenderCache cache) {
         this.image = image;
         this.resolutionsPerRow = resolutionsPerRow;
         this.imageProcessor = imageProcessor;
-        this.charMatcher = charMatcher;
+        this.charset = charset;
         this.roundingMode = roundingMode;
+        this.pool = pool;
+        this.cache = cache;
     }
 
     /**
      * Returns a 2d array representing the ascii art version of the image.
-     * First the method will pad the image, then divide it to sub images,
-     * after which, the brightness of each sub image is calculated. The char
+     * First the method will pad the image, then go over its sub images,
+     * and the brightness of each sub image is calculated. The char
      * representing the brightness will be the character closest to said brightness
      * @return The ascii Art
      * @author Ishay Shaul
      * @author Maoz Bar Shimon
      */
     public char[][] run(){
-        Image paddedImage = imageProcessor.padToPowerOfTwo(image);
-        SubImage[][] subImages = imageProcessor.returnSubImages(paddedImage, resolutionsPerRow);
+        if (cache == null) {
+            return mapToChars(computeBrightnessGrid());
+        }
+        char[][] board = cachedBoard();
+        char[][] output = new char[board.length][];
+        for (int i = 0; i < board.length; i++) {
+            output[i] = board[i].clone();
+        }
+        return output;
+    }
 
-        int rows = subImages.length;
-        int cols = subImages[0].length;
-        char[][] output = new char[rows][cols];
+    /**
+     * Draws the ascii art straight to an output, row by row.
+     * Without a cache or a pool, every row is written as soon as it is mapped to chars,
+     * so the board never exists as a whole. Otherwise the board is built as in
+     * {@link #run()} and then written, a cached one without being copied.
+     * A {@link ColorAsciiOutput} gets the average color of every sub image as well; those
+     * are computed in the same pass as the brightness and are not cached.
+     * @param output where the rows are written
+     */
+    public void run(AsciiOutput output){
+        if (output instanceof ColorAsciiOutput) {
+            runInColor((ColorAsciiOutput) output);
+            return;
+        }
+        if (cache != null) {
+            output.out(cachedBoard());
+            return;
+        }
+        double[][] brightness = computeBrightnessGrid();
+        if (pool != null) {
+            output.out(mapToChars(brightness));
+            return;
+        }
+        char[] row = new char[resolutionsPerRow];
+        output.begin(brightness.length, resolutionsPerRow);
+        for (double[] brightnessRow : brightness) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = charset.getCharByImageBrightness(brightnessRow[j], roundingMode);
+            }
+            output.writeRow(row);
+        }
+        output.end();
+    }
 
+    /**
+     * Computes the brightness and the average color of every sub image in the same pass,
+     * maps the brightness to chars and writes the rows with their colors.
+     */
+    private void runInColor(ColorAsciiOutput output){
+        Image paddedImage = imageProcessor.padToPowerOfTwo(image);
+        int rows = imageProcessor.subImageRows(paddedImage, resolutionsPerRow);
+        int[][] colors = new int[rows][resolutionsPerRow];
+        double[][] brightness = computeBrightnessGrid(paddedImage, colors);
+        char[][] board = mapToChars(brightness);
+        output.begin(rows, resolutionsPerRow);
         for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                double brightness = subImages[i][j].calculateBrightness();
-                char c = charMatcher.getCharByImageBrightness(brightness, roundingMode);
-                output[i][j] = c;
+            output.writeRow(board[i], colors[i]);
+        }
+        output.end();
+    }
+
+    /**
+     * Looks the board up in the cache, computing and caching whatever is missing.
+     * @return the cached board, which must not be changed
+     */
+    private char[][] cachedBoard(){
+        long fingerprint = image.fingerprint();
+        char[] chars = charset.getChars();
+        char[][] board = cache.getBoard(fingerprint, resolutionsPerRow, chars, roundingMode);
+        if (board == null) {
+            double[][] brightness = cache.getGrid(fingerprint, resolutionsPerRow);
+            if (brightness == null) {
+                brightness = computeBrightnessGrid();
+                cache.putGrid(fingerprint, resolutionsPerRow, brightness);
             }
+            board = mapToChars(brightness);
+            cache.putBoard(fingerprint, resolutionsPerRow, chars, roundingMode, board);
+        }
+        return board;
+    }
+
+    /**
+     * First stage: pads the image and calculates the brightness of each of its sub images.
+     * The result depends only on the image and the resolution, not on the charset or the
+     * rounding mode. When the sub images are a power of two pixels wide, as they are for
+     * every resolution the shell reaches, the grid is read from the image's
+     * {@link BrightnessPyramid}, which is shared by all resolutions and is built on this
+     * algorithm's pool the first time.
+     * @return the brightness of sub image (i, j) at [i][j], between 0 and 1
+     */
+    public double[][] computeBrightnessGrid() {
+        BrightnessPyramid pyramid = image.brightnessPyramid(pool);
+        if (pyramid.hasResolution(resolutionsPerRow)) {
+            return pyramid.brightnessGrid(resolutionsPerRow);
         }
+        return computeBrightnessGrid(imageProcessor.padToPowerOfTwo(image), null);
+    }
+
+    /**
+     * Like {@link #computeBrightnessGrid()}, and also stores the average color of every
+     * sub image, computed in the same pass over its pixels. The brightness values are
+     * exactly the same as without the colors.
+     * @param colors receives the average color of sub image (i, j) as a packed RGB int at
+     *               [i][j]; it must have a row for every row of sub images
+     * @return the brightness of sub image (i, j) at [i][j], between 0 and 1
+     */
+    public double[][] computeBrightnessGrid(int[][] colors) {
+        return computeBrightnessGrid(imageProcessor.padToPowerOfTwo(image), colors);
+    }
+
+    private double[][] computeBrightnessGrid(Image paddedImage, int[][] colors) {
+        int rows = imageProcessor.subImageRows(paddedImage, resolutionsPerRow);
+        double[][] brightness = new double[rows][resolutionsPerRow];
+        SubImageConsumer measure = colors == null ?
+                (i, j, subImage) -> brightness[i][j] = subImage.calculateBrightness() :
+                (i, j, subImage) -> brightness[i][j] =
+                        subImage.calculateBrightnessAndColor(colors[i], j);
+        forEachBand(rows, (firstRow, endRow) ->
+                imageProcessor.forEachSubImage(paddedImage, resolutionsPerRow, firstRow, endRow,
+                        measure));
+        return brightness;
+    }
+
+    /**
+     * Second stage: maps every brightness to the closest char of this algorithm's charset,
+     * using its rounding mode. The grid does not have to come from this algorithm, any
+     * grid computed for the same image and resolution gives the same board.
+     * @param brightness the brightness of each sub image, as returned by
+     *                   {@link #computeBrightnessGrid()}
+     * @return the board
+     */
+    public char[][] mapToChars(double[][] brightness) {
+        int rows = brightness.length;
+        char[][] output = new char[rows][];
+        forEachBand(rows, (firstRow, endRow) -> {
+            for (int i = firstRow; i < endRow; i++) {
+                output[i] = new char[brightness[i].length];
+                for (int j = 0; j < brightness[i].length; j++) {
+                    output[i][j] = charset.getCharByImageBrightness(brightness[i][j], roundingMode);
+                }
+            }
+        });
         return output;
     }
 
-}
+    /**
+     * Runs an action over all rows, either at once on the calling thread, or split into
+     * bands on the pool. Every row is given to exactly one call, so bands that do not
+     * overlap can write their own rows of a shared array without locking.
+     * @param rows   the number of rows
+     * @param action the work to do on a band of rows
+     */
+    private void forEachBand(int rows, BandAction action) {
+        if (pool == null) {
+            action.run(0, rows);
+        } else {
+            int rowsPerBand = Math.max(1, rows / (pool.getParallelism() * BANDS_PER_WORKER));
+            pool.invoke(new BandTask(action, 0, rows, rowsPerBand));
+        }
+    }
 
+    /**
+     * Work done on a band of rows, from firstRow up to (not including) endRow.
+     */
+    @FunctionalInterface
+    private interface BandAction {
+        void run(int firstRow, int endRow);
+    }
+
+    /**
+     * Splits a band of rows in half until it is small enough, then runs the action on it.
+     */
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient BandAction action;
+        private final int firstRow;
+        private final int endRow;
+        private final int rowsPerBand;
+
+        BandTask(BandAction action, int firstRow, int endRow, int rowsPerBand) {
+            this.action = action;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.rowsPerBand = rowsPerBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - firstRow <= rowsPerBand) {
+                action.run(firstRow, endRow);
+                return;
+            }
+            int middle = (firstRow + endRow) >>> 1;
+            invokeAll(new BandTask(action, firstRow, middle, rowsPerBand),
+                    new BandTask(action, middle, endRow, rowsPerBand));
+        }
+    }
+
+}
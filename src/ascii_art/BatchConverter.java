@@ -0,0 +1,438 @@
+package ascii_art;
+
+import ascii_output.ColorHtmlAsciiOutput;
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import exceptions.InvalidFormatException;
+import exceptions.OutOfBoundsException;
+import image.Image;
+import image.ImageProcessor;
+import image.SubsampledImageReader;
+import image_char_matching.CharsetSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Math.max;
+
+/**
+ * Converts many images to ascii art without user interaction, for scripts and nightly jobs.
+ * <p>
+ * The images are given as a directory or a glob, along with the resolution, charset,
+ * rounding mode and output format that the shell would otherwise be told interactively.
+ * They are converted concurrently on a bounded pool of workers; when all workers are busy
+ * and the queue is full, the thread that submits images converts the next one itself, so
+ * no more than a bounded number of images is ever decoded at once. All workers draw with
+ * one immutable snapshot of the charset. Every input gets one
+ * output file named after the whole input file name, {@code a.jpg} becoming
+ * {@code a.jpg.txt}, so inputs that only differ in their extension do not overwrite each
+ * other. A throughput summary is printed at the end, and an image whose output could not be
+ * written counts as failed.
+ * <p>
+ * With {@code --min-samples n}, images are decoded subsampled to the resolution, keeping
+ * at least n sampled pixels per side of every tile, see {@link SubsampledImageReader}.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see Shell
+ */
+public class BatchConverter {
+    /** Usage message, printed when the arguments are malformed.*/
+    static final String USAGE = "Usage: java Shell --batch <directory|glob> [--res <n>] " +
+            "[--chars <spec,...>] [--round up|down|abs] [--output console|html|htmlgz|htmlcolor] [--color-bits <n>] [--out <directory>] " +
+            "[--threads <n>] [--min-samples <n>]";
+
+    private static final String RES = "--res";
+    private static final String CHARS = "--chars";
+    private static final String ROUND = "--round";
+    private static final String OUTPUT = "--output";
+    private static final String OUT_DIR = "--out";
+    private static final String THREADS = "--threads";
+    private static final String MIN_SAMPLES = "--min-samples";
+
+    private static final String CONSOLE = "console";
+    private static final String HTML = "html";
+    private static final String HTML_GZIP = "htmlgz";
+    private static final String HTML_COLOR = "htmlcolor";
+    private static final String COLOR_BITS = "--color-bits";
+    private static final int DEFAULT_COLOR_BITS = 4;
+    private static final int MAX_COLOR_BITS = 8;
+    private static final String ALL = "all";
+    private static final String SPACE = "space";
+    private static final String CHARSET_SPLITTER = ",";
+    private static final String RANGE_SPLITTER = "-";
+    private static final String GLOB = "glob:";
+    private static final String TEXT_EXTENSION = ".txt";
+    private static final String HTML_EXTENSION = ".html";
+    private static final String HTML_GZIP_EXTENSION = ".html.gz";
+    private static final String HTML_FONT = "Courier New";
+
+    private static final int DEFAULT_RESOLUTION = 128;
+    /** Decode every pixel unless --min-samples is given.*/
+    private static final int FULL_DECODE = 0;
+    private static final String DEFAULT_CHARSET = "0-9";
+    private static final int LOW_INDEX = 32;
+    private static final int HIGH_INDEX = 126;
+    private static final int MIN_CHARS = 2;
+    private static final int LOOKUP_BUCKETS = 4096;
+    private static final int QUEUED_PER_WORKER = 2;
+    private static final double P50 = 0.50;
+    private static final double P99 = 0.99;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private final List<Path> inputs;
+    private final int resolution;
+    private final CharsetSnapshot charset;
+    private final RoundingMode roundingMode;
+    /** The output format, console, html, htmlgz or htmlcolor.*/
+    private final String output;
+
+    /** Bits kept of every color component in colored output.*/
+    private final int colorBits;
+    private final Path outputDirectory;
+    private final int threads;
+
+    /** The least number of sampled pixels per tile side, 0 or less to decode every pixel.*/
+    private final int minTileSamples;
+
+    /** Latency of every successful conversion, in nanoseconds.*/
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * Constructs a batch conversion.
+     * @param inputs          the images to convert
+     * @param resolution      the number of chars per row
+     * @param charset         the charset to draw with, shared by all workers
+     * @param roundingMode    the rounding mode used to select chars
+     * @param output          "html" or "htmlgz" for (compressed) HTML files, "htmlcolor" for
+     *                        colored HTML files, "console" for text files in the console's
+     *                        format
+     * @param colorBits       bits kept of every color component in colored output
+     * @param outputDirectory the directory the outputs are written to
+     * @param threads         the number of workers
+     * @param minTileSamples  the least number of sampled pixels per tile side when images
+     *                        are decoded subsampled, 0 or less to decode every pixel
+     * @see SubsampledImageReader
+     */
+    public BatchConverter(List<Path> inputs, int resolution, CharsetSnapshot charset,
+                          RoundingMode roundingMode, String output, int colorBits, Path outputDirectory, int threads,
+                          int minTileSamples) {
+        this.inputs = inputs;
+        this.resolution = resolution;
+        this.charset = charset;
+        this.roundingMode = roundingMode;
+        this.output = output;
+        this.colorBits = colorBits;
+        this.outputDirectory = outputDirectory;
+        this.threads = threads;
+        this.minTileSamples = minTileSamples;
+    }
+
+    /**
+     * Converts all inputs and prints the throughput summary.
+     * @throws IOException if the output directory cannot be created
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public void run() throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUED_PER_WORKER),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.nanoTime();
+        for (Path input : inputs) {
+            workers.execute(() -> convert(input));
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        printSummary(System.nanoTime() - start);
+    }
+
+    /**
+     * Converts a single image and records its latency, or reports why it failed.
+     */
+    private void convert(Path input) {
+        long start = System.nanoTime();
+        try {
+            Image image;
+            try (SubsampledImageReader reader = new SubsampledImageReader(input.toString())) {
+                checkResolution(reader.getWidth(), reader.getHeight(), resolution);
+                image = reader.read(reader.subsampling(resolution, minTileSamples));
+            }
+            AsciiArtAlgorithm algorithm = new AsciiArtAlgorithm(image, resolution,
+                    new ImageProcessor(), charset, roundingMode, null, null);
+            writeOutput(input, algorithm);
+            bytesRead.addAndGet(Files.size(input));
+            latencies.add(System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            System.err.println(input + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the shell's resolution boundaries to the dimensions of an image, before it
+     * is decoded.
+     * @throws OutOfBoundsException if the image cannot be drawn at the resolution
+     */
+    static void checkResolution(int width, int height, int resolution) {
+        int minCharsInRow = max(1, width / height);
+        if (resolution > width || minCharsInRow > resolution) {
+            throw new OutOfBoundsException("resolution " + resolution + " is out of bounds");
+        }
+    }
+
+    /**
+     * Draws the art into a file next to the other outputs, named after the whole input
+     * file name.
+     * @throws IOException if the file cannot be written completely
+     */
+    private void writeOutput(Path input, AsciiArtAlgorithm algorithm) throws IOException {
+        String name = input.getFileName().toString();
+        if (output.equals(HTML_COLOR) || output.equals(HTML) || output.equals(HTML_GZIP)) {
+            boolean gzip = output.equals(HTML_GZIP);
+            String file = outputDirectory.resolve(name + (gzip ? HTML_GZIP_EXTENSION : HTML_EXTENSION))
+                    .toString();
+            HtmlAsciiOutput html = output.equals(HTML_COLOR) ?
+                    new ColorHtmlAsciiOutput(file, HTML_FONT, colorBits, false) :
+                    new HtmlAsciiOutput(file, HTML_FONT, gzip);
+            algorithm.run(html);
+            if (html.checkError()) {
+                throw new IOException("Failed to write " + file);
+            }
+            return;
+        }
+        File file = outputDirectory.resolve(name + TEXT_EXTENSION).toFile();
+        try (PrintStream stream = new PrintStream(new FileOutputStream(file))) {
+            algorithm.run(new ConsoleAsciiOutput(stream));
+            if (stream.checkError()) {
+                throw new IOException("Failed to write " + file);
+            }
+        }
+    }
+
+    /**
+     * Prints images/s, MB/s and the median and 99th percentile latency of the images.
+     */
+    private void printSummary(long elapsedNanos) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        double seconds = elapsedNanos / NANOS_PER_SECOND;
+        System.out.println(String.format(Locale.ROOT,
+                "Converted %d images (%d failed) in %.2f s: %.2f images/s, %.2f MB/s, " +
+                        "p50 %.1f ms, p99 %.1f ms",
+                sorted.size(), failures.get(), seconds, sorted.size() / seconds,
+                bytesRead.get() / BYTES_PER_MB / seconds,
+                percentile(sorted, P50) / NANOS_PER_MILLI, percentile(sorted, P99) / NANOS_PER_MILLI));
+    }
+
+    /**
+     * @return the nearest-rank percentile of sorted values, 0 if there are none
+     */
+    private static long percentile(List<Long> sorted, double fraction) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(fraction * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    /**
+     * Entry point of the batch mode, see {@link #USAGE}.
+     * @param args the command-line arguments, without the leading "--batch"
+     */
+    public static void main(String[] args) {
+        try {
+            parse(args).run();
+        } catch (InvalidFormatException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Builds a batch conversion from command-line arguments.
+     * @param args the arguments, without the leading "--batch"
+     * @return the batch conversion
+     * @throws InvalidFormatException if an argument is malformed
+     * @throws IOException if the inputs cannot be listed
+     */
+    static BatchConverter parse(String[] args) throws InvalidFormatException, IOException {
+        if (args.length == 0 || args.length % 2 == 0) {
+            throw new InvalidFormatException("Expected an input followed by option/value pairs.");
+        }
+        int resolution = DEFAULT_RESOLUTION;
+        String charset = DEFAULT_CHARSET;
+        RoundingMode roundingMode = RoundingMode.ABS;
+        String output = CONSOLE;
+        int colorBits = DEFAULT_COLOR_BITS;
+        Path outputDirectory = Path.of(".");
+        int threads = Runtime.getRuntime().availableProcessors();
+        int minTileSamples = FULL_DECODE;
+        for (int i = 1; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case RES:
+                    resolution = parsePositive(value, RES);
+                    break;
+                case CHARS:
+                    charset = value;
+                    break;
+                case ROUND:
+                    roundingMode = parseRoundingMode(value);
+                    break;
+                case OUTPUT:
+                    output = parseOutput(value);
+                    break;
+                case OUT_DIR:
+                    outputDirectory = Path.of(value);
+                    break;
+                case THREADS:
+                    threads = parsePositive(value, THREADS);
+                    break;
+                case MIN_SAMPLES:
+                    minTileSamples = parsePositive(value, MIN_SAMPLES);
+                    break;
+                case COLOR_BITS:
+                    colorBits = parsePositive(value, COLOR_BITS);
+                    if (colorBits > MAX_COLOR_BITS) {
+                        throw new InvalidFormatException("Bad value for " + COLOR_BITS + ": " + value);
+                    }
+                    break;
+                default:
+                    throw new InvalidFormatException("Unknown option " + args[i]);
+            }
+        }
+        SubImgCharMatcher charMatcher = new SubImgCharMatcher(parseCharset(charset));
+        charMatcher.setLookupTableBuckets(LOOKUP_BUCKETS);
+        CharsetSnapshot snapshot = charMatcher.snapshot();
+        if (snapshot.size() <= MIN_CHARS) {
+            throw new InvalidFormatException("Charset is too small.");
+        }
+        return new BatchConverter(listInputs(args[0]), resolution, snapshot, roundingMode, output,
+                colorBits, outputDirectory, threads, minTileSamples);
+    }
+
+    /**
+     * Lists the images of a directory, or the files matching a glob such as
+     * {@code photos/*.jpg}. Only the last path element may hold wildcards.
+     */
+    static List<Path> listInputs(String pattern) throws IOException {
+        Path path = Path.of(pattern);
+        List<Path> inputs = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            Set<String> suffixes = new HashSet<>(Arrays.asList(ImageIO.getReaderFileSuffixes()));
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+                    if (Files.isRegularFile(file) && suffixes.contains(suffix)) {
+                        inputs.add(file);
+                    }
+                }
+            }
+        } else {
+            Path directory = path.getParent() == null ? Path.of(".") : path.getParent();
+            PathMatcher matcher = directory.getFileSystem()
+                    .getPathMatcher(GLOB + path.getFileName().toString());
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    if (Files.isRegularFile(file) && matcher.matches(file.getFileName())) {
+                        inputs.add(file);
+                    }
+                }
+            }
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    /**
+     * Parses a charset given as comma separated items, each being "all", "space", a range
+     * such as "a-z", or a single character, like the sub commands of the shell's add.
+     */
+    static char[] parseCharset(String spec) throws InvalidFormatException {
+        StringBuilder chars = new StringBuilder();
+        for (String item : spec.split(CHARSET_SPLITTER)) {
+            if (item.equals(ALL)) {
+                appendRange(chars, LOW_INDEX, HIGH_INDEX);
+            } else if (item.equals(SPACE)) {
+                chars.append(' ');
+            } else if (item.length() == 1) {
+                chars.append(item.charAt(0));
+            } else if (item.length() == 3 && item.substring(1, 2).equals(RANGE_SPLITTER)) {
+                appendRange(chars, Math.min(item.charAt(0), item.charAt(2)),
+                        Math.max(item.charAt(0), item.charAt(2)));
+            } else {
+                throw new InvalidFormatException("Bad charset item " + item);
+            }
+        }
+        return chars.toString().toCharArray();
+    }
+
+    private static void appendRange(StringBuilder chars, int first, int last) {
+        for (int c = first; c <= last; c++) {
+            chars.append((char) c);
+        }
+    }
+
+    static RoundingMode parseRoundingMode(String value) throws InvalidFormatException {
+        for (RoundingMode mode : RoundingMode.values()) {
+            if (mode.name().equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new InvalidFormatException("Bad rounding mode " + value);
+    }
+
+    private static String parseOutput(String value) throws InvalidFormatException {
+        switch (value) {
+            case CONSOLE:
+            case HTML:
+            case HTML_GZIP:
+            case HTML_COLOR:
+                return value;
+            default:
+                throw new InvalidFormatException("Bad output " + value);
+        }
+    }
+
+    static int parsePositive(String value, String option) throws InvalidFormatException {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new InvalidFormatException("Bad value for " + option + ": " + value);
+    }
+}
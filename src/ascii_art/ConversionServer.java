@@ -0,0 +1,497 @@
+package ascii_art;
+
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import exceptions.InvalidFormatException;
+import exceptions.OutOfBoundsException;
+import image.Image;
+import image.ImageProcessor;
+import image.SubsampledImageReader;
+import image_char_matching.CharsetSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small embedded HTTP server that converts uploaded images to ascii art.
+ * <p>
+ * {@code POST /convert?res=128&chars=a-z,space&round=abs&output=text} takes the image file
+ * as the request body and answers with the art as plain text (the console format) or as
+ * an HTML page. The parameters are all optional and are spelled like those of
+ * {@link BatchConverter}. {@code GET /metrics} reports request counts and latency
+ * histograms in the Prometheus text format.
+ * <p>
+ * Requests run on a bounded pool of threads, and at most a fixed number of conversions run
+ * at once; a request arriving when all of them are taken is answered with 503 right away
+ * instead of queueing. When even the pool and its queue are full, requests are handed to a
+ * single overflow thread that answers conversions with 503 and still serves the metrics,
+ * so the thread accepting connections never does the work itself. An immutable snapshot
+ * of every distinct charset is built once and shared by all requests that draw with it.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see BatchConverter
+ */
+public class ConversionServer {
+    /** Usage message, printed when the arguments are malformed.*/
+    static final String USAGE = "Usage: java Shell --serve [--port <n>] [--threads <n>] " +
+            "[--max-concurrent <n>] [--min-samples <n>]";
+
+    private static final String PORT = "--port";
+    private static final String THREADS = "--threads";
+    private static final String MAX_CONCURRENT = "--max-concurrent";
+    private static final String MIN_SAMPLES = "--min-samples";
+
+    private static final String CONVERT_PATH = "/convert";
+    private static final String METRICS_PATH = "/metrics";
+    private static final String POST = "POST";
+    private static final String GET = "GET";
+
+    private static final String RES_PARAM = "res";
+    private static final String CHARS_PARAM = "chars";
+    private static final String ROUND_PARAM = "round";
+    private static final String OUTPUT_PARAM = "output";
+    private static final String TEXT = "text";
+    private static final String HTML = "html";
+
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String TEXT_TYPE = "text/plain; charset=utf-8";
+    private static final String HTML_TYPE = "text/html; charset=utf-8";
+    private static final String METRICS_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String RETRY_SECONDS = "1";
+    private static final String HTML_FONT = "Courier New";
+
+    private static final int OK = 200;
+    private static final int BAD_REQUEST = 400;
+    private static final int METHOD_NOT_ALLOWED = 405;
+    private static final int PAYLOAD_TOO_LARGE = 413;
+    private static final int UNSUPPORTED_MEDIA_TYPE = 415;
+    private static final int INTERNAL_ERROR = 500;
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_RESOLUTION = 128;
+    /** Decode every pixel unless --min-samples is given.*/
+    private static final int FULL_DECODE = 0;
+    private static final String DEFAULT_CHARSET = "0-9";
+    private static final int MIN_CHARS = 2;
+    private static final int LOOKUP_BUCKETS = 4096;
+    /** Largest accepted upload, so a single request cannot exhaust the heap.*/
+    private static final int MAX_UPLOAD_BYTES = 32 * 1024 * 1024;
+    /** Most pixels decoded for a single upload, so a small file cannot exhaust the heap.*/
+    private static final long MAX_PIXELS = 64L * 1024 * 1024;
+    /** Most charsets whose snapshots are kept, so clients cannot grow the cache forever.*/
+    private static final int MAX_CACHED_CHARSETS = 256;
+    /** Number of threads per allowed conversion, the rest answer 503s and metrics.*/
+    private static final int THREADS_PER_CONVERSION = 2;
+    /** Requests that may wait for the overflow thread, the rest are dropped.*/
+    private static final int OVERFLOW_QUEUE = 64;
+    private static final int STOP_DELAY_SECONDS = 1;
+
+    /** Whether the current thread runs a request that overflowed the workers.*/
+    private static final ThreadLocal<Boolean> OVERFLOWED = ThreadLocal.withInitial(() -> false);
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+
+    /** Answers the requests the workers have no room for, without converting them.*/
+    private final ThreadPoolExecutor overflow;
+
+    /** Conversions that may run at once.*/
+    private final Semaphore conversions;
+
+    /** The least number of sampled pixels per tile side, 0 or less to decode every pixel.*/
+    private final int minTileSamples;
+
+    /** Snapshots of the charsets asked for so far, by their sorted chars.*/
+    private final ConcurrentHashMap<String, CharsetSnapshot> charsets = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+    private final LatencyHistogram renderLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+    private final AtomicLong converted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong badRequests = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Constructs a server, which does not accept connections until it is started.
+     * @param port          the port to listen on, 0 for any free port
+     * @param threads       the number of threads requests are handled on
+     * @param maxConcurrent the number of conversions that may run at once
+     * @throws IOException if the port cannot be bound
+     */
+    public ConversionServer(int port, int threads, int maxConcurrent) throws IOException {
+        this(port, threads, maxConcurrent, FULL_DECODE);
+    }
+
+    /**
+     * Constructs a server that decodes uploads subsampled to the requested resolution,
+     * which does not accept connections until it is started.
+     * @param port           the port to listen on, 0 for any free port
+     * @param threads        the number of threads requests are handled on
+     * @param maxConcurrent  the number of conversions that may run at once
+     * @param minTileSamples the least number of sampled pixels per tile side, 0 or less
+     *                       to decode every pixel
+     * @throws IOException if the port cannot be bound
+     * @see SubsampledImageReader
+     */
+    public ConversionServer(int port, int threads, int maxConcurrent, int minTileSamples)
+            throws IOException {
+        this.conversions = new Semaphore(maxConcurrent);
+        this.minTileSamples = minTileSamples;
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads), new ThreadPoolExecutor.AbortPolicy());
+        this.overflow = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(OVERFLOW_QUEUE), new ThreadPoolExecutor.AbortPolicy());
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(this::dispatch);
+        server.createContext(CONVERT_PATH, this::handleConvert);
+        server.createContext(METRICS_PATH, this::handleMetrics);
+        // warm the default charset, so the first request does not render its glyphs
+        try {
+            charsetFor(DEFAULT_CHARSET);
+        } catch (InvalidFormatException e) {
+            // the default charset is always valid
+        }
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting connections, lets running requests finish shortly and stops the
+     * threads.
+     */
+    public void stop() {
+        server.stop(STOP_DELAY_SECONDS);
+        workers.shutdown();
+        overflow.shutdown();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Runs a request on the workers, or on the overflow thread when they have no room. A
+     * request that does not fit there either is refused, and the server closes its
+     * connection.
+     * @throws RejectedExecutionException if both the workers and the overflow thread are full
+     */
+    private void dispatch(Runnable request) {
+        try {
+            workers.execute(request);
+        } catch (RejectedExecutionException e) {
+            overflow.execute(() -> {
+                OVERFLOWED.set(true);
+                try {
+                    request.run();
+                } finally {
+                    OVERFLOWED.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Handles {@code /convert}: decodes the uploaded image, converts it and writes the art.
+     */
+    private void handleConvert(HttpExchange exchange) throws IOException {
+        try {
+            if (!POST.equals(exchange.getRequestMethod())) {
+                badRequests.incrementAndGet();
+                respond(exchange, METHOD_NOT_ALLOWED, TEXT_TYPE, "Only POST is supported.\n");
+                return;
+            }
+            if (OVERFLOWED.get() || !conversions.tryAcquire()) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set(RETRY_AFTER, RETRY_SECONDS);
+                respond(exchange, SERVICE_UNAVAILABLE, TEXT_TYPE, "Too many conversions.\n");
+                return;
+            }
+            try {
+                convert(exchange);
+            } catch (InvalidFormatException | OutOfBoundsException e) {
+                badRequests.incrementAndGet();
+                respond(exchange, BAD_REQUEST, TEXT_TYPE, e.getMessage() + "\n");
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                respond(exchange, INTERNAL_ERROR, TEXT_TYPE, "Conversion failed.\n");
+            } finally {
+                conversions.release();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Converts a single upload, answering with the art or with the reason it was refused.
+     */
+    private void convert(HttpExchange exchange) throws IOException, InvalidFormatException {
+        long start = System.nanoTime();
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        int resolution = params.containsKey(RES_PARAM) ?
+                parseResolution(params.get(RES_PARAM)) : DEFAULT_RESOLUTION;
+        CharsetSnapshot charset = charsetFor(params.getOrDefault(CHARS_PARAM, DEFAULT_CHARSET));
+        RoundingMode roundingMode = params.containsKey(ROUND_PARAM) ?
+                BatchConverter.parseRoundingMode(params.get(ROUND_PARAM)) : RoundingMode.ABS;
+        String output = params.getOrDefault(OUTPUT_PARAM, TEXT);
+        if (!output.equals(TEXT) && !output.equals(HTML)) {
+            throw new InvalidFormatException("Bad output " + output);
+        }
+
+        byte[] upload = readUpload(exchange.getRequestBody());
+        if (upload == null) {
+            badRequests.incrementAndGet();
+            respond(exchange, PAYLOAD_TOO_LARGE, TEXT_TYPE, "Image is too large.\n");
+            return;
+        }
+        SubsampledImageReader reader;
+        try {
+            reader = new SubsampledImageReader(new ByteArrayInputStream(upload));
+        } catch (IOException e) {
+            badRequests.incrementAndGet();
+            respond(exchange, UNSUPPORTED_MEDIA_TYPE, TEXT_TYPE, "Not a readable image.\n");
+            return;
+        }
+        Image image;
+        try {
+            int width = reader.getWidth();
+            int height = reader.getHeight();
+            int factor = reader.subsampling(resolution, minTileSamples);
+            if (width <= 0 || height <= 0 || ceilDiv(width, factor) *
+                    ceilDiv(height, factor) > MAX_PIXELS) {
+                badRequests.incrementAndGet();
+                respond(exchange, PAYLOAD_TOO_LARGE, TEXT_TYPE, "Image has too many pixels.\n");
+                return;
+            }
+            BatchConverter.checkResolution(width, height, resolution);
+            try {
+                image = reader.read(factor);
+            } catch (IOException e) {
+                // a truncated or corrupt file that only fails once its pixels are decoded
+                badRequests.incrementAndGet();
+                respond(exchange, UNSUPPORTED_MEDIA_TYPE, TEXT_TYPE, "Not a readable image.\n");
+                return;
+            }
+        } finally {
+            reader.close();
+        }
+        long decodedAt = System.nanoTime();
+        decodeLatency.record(decodedAt - start);
+
+        char[][] board = new AsciiArtAlgorithm(image, resolution, new ImageProcessor(),
+                charset, roundingMode, null, null).run();
+        long rendered = System.nanoTime();
+        renderLatency.record(rendered - decodedAt);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (output.equals(HTML)) {
+            Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+            new HtmlAsciiOutput(CONVERT_PATH, HTML_FONT).write(board, writer);
+            writer.flush();
+        } else {
+            PrintStream stream = new PrintStream(body, false, StandardCharsets.UTF_8);
+            new ConsoleAsciiOutput(stream).out(board);
+            stream.flush();
+        }
+        respond(exchange, OK, output.equals(HTML) ? HTML_TYPE : TEXT_TYPE, body.toByteArray());
+        long end = System.nanoTime();
+        writeLatency.record(end - rendered);
+        totalLatency.record(end - start);
+        converted.incrementAndGet();
+    }
+
+    /**
+     * Handles {@code /metrics}, which is served even when every conversion is taken.
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!GET.equals(exchange.getRequestMethod())) {
+                respond(exchange, METHOD_NOT_ALLOWED, TEXT_TYPE, "Only GET is supported.\n");
+                return;
+            }
+            StringBuilder out = new StringBuilder();
+            appendCounter(out, "ok", converted);
+            appendCounter(out, "rejected", rejected);
+            appendCounter(out, "bad_request", badRequests);
+            appendCounter(out, "error", failed);
+            out.append("ascii_cached_charsets ").append(charsets.size()).append('\n');
+            String histogram = "ascii_convert_seconds";
+            decodeLatency.appendTo(out, histogram, "stage=\"decode\"");
+            renderLatency.appendTo(out, histogram, "stage=\"render\"");
+            writeLatency.appendTo(out, histogram, "stage=\"write\"");
+            totalLatency.appendTo(out, histogram, "stage=\"total\"");
+            respond(exchange, OK, METRICS_TYPE, out.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void appendCounter(StringBuilder out, String outcome, AtomicLong counter) {
+        out.append("ascii_requests_total{outcome=\"").append(outcome).append("\"} ")
+                .append(counter.get()).append('\n');
+    }
+
+    /**
+     * Returns the shared snapshot of a charset, building it the first time the charset is
+     * asked for. Glyphs come from the process-wide glyph cache, so even a new charset is
+     * cheap once its chars were seen.
+     * @throws InvalidFormatException if the charset is malformed or too small
+     */
+    private CharsetSnapshot charsetFor(String spec) throws InvalidFormatException {
+        char[] chars = BatchConverter.parseCharset(spec);
+        Arrays.sort(chars);
+        String key = new String(chars);
+        CharsetSnapshot charset = charsets.get(key);
+        if (charset != null) {
+            return charset;
+        }
+        SubImgCharMatcher charMatcher = new SubImgCharMatcher(chars);
+        charMatcher.setLookupTableBuckets(LOOKUP_BUCKETS);
+        charset = charMatcher.snapshot();
+        if (charset.size() <= MIN_CHARS) {
+            throw new InvalidFormatException("Charset is too small.");
+        }
+        if (charsets.size() >= MAX_CACHED_CHARSETS) {
+            return charset;
+        }
+        CharsetSnapshot existing = charsets.putIfAbsent(key, charset);
+        return existing != null ? existing : charset;
+    }
+
+    /**
+     * @return the request body, or null if it is larger than {@link #MAX_UPLOAD_BYTES}
+     */
+    private static byte[] readUpload(InputStream body) throws IOException {
+        byte[] upload = body.readNBytes(MAX_UPLOAD_BYTES + 1);
+        return upload.length > MAX_UPLOAD_BYTES ? null : upload;
+    }
+
+    private static long ceilDiv(int value, int divisor) {
+        return ((long) value + divisor - 1) / divisor;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static int parseResolution(String value) throws InvalidFormatException {
+        try {
+            int resolution = Integer.parseInt(value);
+            if (resolution > 0) {
+                return resolution;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new InvalidFormatException("Bad resolution " + value);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, String body)
+            throws IOException {
+        respond(exchange, status, type, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set(CONTENT_TYPE, type);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Entry point of the server, see {@link #USAGE}. The server keeps running after this
+     * returns, until the process is stopped.
+     * @param args the command-line arguments, without the leading "--serve"
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int maxConcurrent = Runtime.getRuntime().availableProcessors();
+        int threads = -1;
+        int minTileSamples = FULL_DECODE;
+        try {
+            if (args.length % 2 != 0) {
+                throw new InvalidFormatException("Expected option/value pairs.");
+            }
+            for (int i = 0; i < args.length; i += 2) {
+                switch (args[i]) {
+                    case PORT:
+                        port = Integer.parseInt(args[i + 1]);
+                        break;
+                    case THREADS:
+                        threads = Integer.parseInt(args[i + 1]);
+                        break;
+                    case MAX_CONCURRENT:
+                        maxConcurrent = Integer.parseInt(args[i + 1]);
+                        break;
+                    case MIN_SAMPLES:
+                        minTileSamples = Integer.parseInt(args[i + 1]);
+                        break;
+                    default:
+                        throw new InvalidFormatException("Unknown option " + args[i]);
+                }
+            }
+            if (threads == -1) {
+                threads = maxConcurrent * THREADS_PER_CONVERSION;
+            }
+            if (port < 0 || threads <= 0 || maxConcurrent <= 0 || minTileSamples < 0) {
+                throw new InvalidFormatException("Options must be positive.");
+            }
+            ConversionServer server = new ConversionServer(port, threads, maxConcurrent, minTileSamples);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            System.out.println("Listening on port " + server.getPort());
+        } catch (InvalidFormatException | NumberFormatException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ascii_art;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies over fixed buckets, which any number of threads can
+ * record into while it is being read.
+ * <p>
+ * It is printed in the Prometheus text format: cumulative bucket counts labelled with their
+ * upper bound in seconds, followed by the total count and sum.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class LatencyHistogram {
+    /** Upper bounds of the buckets in milliseconds. Anything slower lands in the last one.*/
+    private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000,
+            2000, 5000, 10000};
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double MILLIS_PER_SECOND = 1e3;
+    private static final String INFINITY = "+Inf";
+
+    /** Number of latencies in every bucket, the last one being unbounded.*/
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+
+    /** Sum of all latencies in nanoseconds.*/
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    /**
+     * Records a single latency.
+     * @param nanos the latency in nanoseconds
+     */
+    void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS_MILLIS.length && nanos > BOUNDS_MILLIS[bucket] * NANOS_PER_MILLI) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        sumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Appends the histogram in the Prometheus text format.
+     * @param out    where the histogram is appended
+     * @param name   the metric name
+     * @param labels extra labels such as {@code stage="decode"}, or an empty string
+     */
+    void appendTo(StringBuilder out, String name, String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i <= BOUNDS_MILLIS.length; i++) {
+            cumulative += counts.get(i);
+            String bound = i < BOUNDS_MILLIS.length ?
+                    String.format(Locale.ROOT, "%.3f", BOUNDS_MILLIS[i] / MILLIS_PER_SECOND) : INFINITY;
+            out.append(name).append("_bucket{").append(labels).append(separator)
+                    .append("le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+        }
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+        out.append(name).append("_sum").append(suffix).append(' ')
+                .append(String.format(Locale.ROOT, "%.6f", sumNanos.get() / NANOS_PER_SECOND))
+                .append('\n');
+    }
+}
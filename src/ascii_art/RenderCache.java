@@ -0,0 +1,207 @@
+package ascii_art;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A least-recently-used cache of rendered boards and of the brightness grids they were
+ * mapped from, bounded by an approximate memory cap.
+ * <p>
+ * Boards are keyed by (image fingerprint, resolution, charset, rounding mode), so asking
+ * for the same render again - e.g. after switching the output - is served without any
+ * work. Brightness grids are keyed by (image fingerprint, resolution) only, so a render
+ * that changes just the charset or the rounding mode reuses the grid and only maps it to
+ * chars again.
+ * <p>
+ * The cache is thread-safe; when it is full, the least recently used entries are evicted.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see AsciiArtAlgorithm
+ */
+public class RenderCache {
+    /** Approximate bytes per cell of a brightness grid.*/
+    private static final int GRID_CELL_BYTES = Double.BYTES;
+
+    /** Approximate bytes per cell of a board.*/
+    private static final int BOARD_CELL_BYTES = Character.BYTES;
+
+    /** The most bytes the cached entries may take.*/
+    private final long capacityBytes;
+
+    /** The cached entries, least recently used first.*/
+    private final LinkedHashMap<Object, Object> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The bytes the cached entries take.*/
+    private long usedBytes;
+
+    /**
+     * Constructs an empty cache.
+     * @param capacityBytes the most bytes the cached boards and grids may take together
+     */
+    public RenderCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * @return the bytes the cached entries take, approximately
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Drops every cached entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Looks up a rendered board.
+     * @param fingerprint  the fingerprint of the image
+     * @param resolution   the number of chars per row
+     * @param charset      the characters in use, in ascending order
+     * @param roundingMode the rounding mode the board was mapped with
+     * @return the cached board, or null on a miss; it must not be modified
+     */
+    synchronized char[][] getBoard(long fingerprint, int resolution, char[] charset,
+                                   RoundingMode roundingMode) {
+        return (char[][]) entries.get(new BoardKey(fingerprint, resolution, charset, roundingMode));
+    }
+
+    /**
+     * Caches a rendered board.
+     * @param fingerprint  the fingerprint of the image
+     * @param resolution   the number of chars per row
+     * @param charset      the characters in use, in ascending order
+     * @param roundingMode the rounding mode the board was mapped with
+     * @param board        the board, which must not be modified afterwards
+     */
+    synchronized void putBoard(long fingerprint, int resolution, char[] charset,
+                               RoundingMode roundingMode, char[][] board) {
+        put(new BoardKey(fingerprint, resolution, charset, roundingMode), board,
+                cells(board.length, board.length == 0 ? 0 : board[0].length) * BOARD_CELL_BYTES);
+    }
+
+    /**
+     * Looks up a brightness grid.
+     * @param fingerprint the fingerprint of the image
+     * @param resolution  the number of sub-images per row
+     * @return the cached grid, or null on a miss; it must not be modified
+     */
+    synchronized double[][] getGrid(long fingerprint, int resolution) {
+        return (double[][]) entries.get(new GridKey(fingerprint, resolution));
+    }
+
+    /**
+     * Caches a brightness grid.
+     * @param fingerprint the fingerprint of the image
+     * @param resolution  the number of sub-images per row
+     * @param grid        the grid, which must not be modified afterwards
+     */
+    synchronized void putGrid(long fingerprint, int resolution, double[][] grid) {
+        put(new GridKey(fingerprint, resolution), grid,
+                cells(grid.length, grid.length == 0 ? 0 : grid[0].length) * GRID_CELL_BYTES);
+    }
+
+    private static long cells(int rows, int cols) {
+        return (long) rows * cols;
+    }
+
+    /**
+     * Adds an entry and evicts least recently used ones until the cache fits its cap.
+     * Entries larger than the whole cap are not cached at all.
+     */
+    private void put(Object key, Object value, long bytes) {
+        if (bytes > capacityBytes) {
+            return;
+        }
+        Object previous = entries.put(key, value);
+        if (previous != null) {
+            usedBytes -= sizeOf(previous);
+        }
+        usedBytes += bytes;
+        Iterator<Map.Entry<Object, Object>> eldest = entries.entrySet().iterator();
+        while (usedBytes > capacityBytes && eldest.hasNext()) {
+            Map.Entry<Object, Object> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            usedBytes -= sizeOf(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(Object value) {
+        if (value instanceof char[][]) {
+            char[][] board = (char[][]) value;
+            return cells(board.length, board.length == 0 ? 0 : board[0].length) * BOARD_CELL_BYTES;
+        }
+        double[][] grid = (double[][]) value;
+        return cells(grid.length, grid.length == 0 ? 0 : grid[0].length) * GRID_CELL_BYTES;
+    }
+
+    /**
+     * Identifies a brightness grid.
+     */
+    private static final class GridKey {
+        private final long fingerprint;
+        private final int resolution;
+
+        GridKey(long fingerprint, int resolution) {
+            this.fingerprint = fingerprint;
+            this.resolution = resolution;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GridKey)) {
+                return false;
+            }
+            GridKey other = (GridKey) o;
+            return fingerprint == other.fingerprint && resolution == other.resolution;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fingerprint, resolution);
+        }
+    }
+
+    /**
+     * Identifies a board. The charset is kept as is, not only hashed, so two charsets
+     * with the same hash never share a board.
+     */
+    private static final class BoardKey {
+        private final long fingerprint;
+        private final int resolution;
+        private final char[] charset;
+        private final RoundingMode roundingMode;
+
+        BoardKey(long fingerprint, int resolution, char[] charset, RoundingMode roundingMode) {
+            this.fingerprint = fingerprint;
+            this.resolution = resolution;
+            this.charset = charset;
+            this.roundingMode = roundingMode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BoardKey)) {
+                return false;
+            }
+            BoardKey other = (BoardKey) o;
+            return fingerprint == other.fingerprint && resolution == other.resolution &&
+                    roundingMode == other.roundingMode && Arrays.equals(charset, other.charset);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fingerprint, resolution, Arrays.hashCode(charset), roundingMode);
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package ascii_art;
 
+import ascii_output.AnsiAsciiOutput;
 import ascii_output.AsciiOutput;
+import ascii_output.ColorHtmlAsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
 import exceptions.OutOfBoundsException;
 import exceptions.TooFewCharactersException;
+import image.BandedImageReader;
 import image.Image;
 import image.ImageProcessor;
+import image_char_matching.GlyphCache;
 import image_char_matching.SubImgCharMatcher;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.TreeMap;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
 import exceptions.InvalidFormatException;
 
 
@@ -48,6 +55,37 @@ public class Shell {
     /** Command that will run the asciiArtAlgorithm and produce the final image.*/
     private static final String RUN_ALGO = "asciiArt";
 
+    /** Command that selects whether the asciiArtAlgorithm runs in parallel, and on how many
+     * threads.*/
+    private static final String PARALLEL = "parallel";
+
+    /** Sub command of parallel. Runs the algorithm on all available cores.*/
+    private static final String ON = "on";
+
+    /** Sub command of parallel. Runs the algorithm on the shell's thread only.*/
+    private static final String OFF = "off";
+
+    /** Error that is printed when an incorrect sub command is given to parallel.*/
+    private static final String PARALLEL_ERR_MESSAGE =
+            "Did not change parallelism due to incorrect format.";
+
+    /** The most threads "parallel <n>" accepts, the largest pool a ForkJoinPool can have.*/
+    private static final int MAX_PARALLELISM = 0x7fff;
+
+    /** Command that selects whether the image is drawn straight from the file, band by band,
+     * instead of being loaded into memory as a whole.*/
+    private static final String STREAM = "stream";
+
+    /** Error that is printed when an incorrect sub command is given to stream.*/
+    private static final String STREAM_ERR_MESSAGE =
+            "Did not change streaming mode due to incorrect format.";
+
+    /** Index of the optional rows per band of "stream on <rows>" among the words.*/
+    private static final int STREAM_ROWS_INDEX = 2;
+
+    /** Information message that is printed after the parallelism changed.*/
+    private static final String PARALLELISM_SET_MESSAGE = "Parallelism set to ";
+
     /** sub command of add and remove. will perform the first command on all
      * characters.*/
     private static final String ALL = "all";
@@ -86,9 +124,38 @@ public class Shell {
     /** Sub command of output. Meaning that the final image be printed to a html file.*/
     private static final String HTML = "html";
 
+    /** Sub command of output. Meaning that the final image be written to a gzip compressed
+     * html file.*/
+    private static final String HTML_GZIP = "htmlgz";
+
+    /** Sub command of output. Meaning that the final image be written to a html file in
+     * the colors of the image.*/
+    private static final String HTML_COLOR = "htmlcolor";
+
+    /** Bits kept of every color component in colored html when "output htmlcolor" is not
+     * followed by a number, 4096 colors in all.*/
+    private static final int DEFAULT_HTML_COLOR_BITS = 4;
+
+    /** The most bits kept of every color component in colored html, the full colors.*/
+    private static final int MAX_HTML_COLOR_BITS = 8;
+
+    /** Index of the optional color bits of "output htmlcolor <bits>" among the words.*/
+    private static final int OUTPUT_COLOR_BITS_INDEX = 2;
+
+    /** Sub command of output. Meaning that the final image be printed to the console in
+     * the colors of the image, in 24 bits.*/
+    private static final String ANSI = "ansi";
+
+    /** Sub command of output. Meaning that the final image be printed to the console in
+     * the 256 colors of the terminal palette.*/
+    private static final String ANSI_256 = "ansi256";
+
     /** The html file that the final image will be sent to.*/
     private static final String HTML_FILENAME = "out.html";
 
+    /** The compressed html file that the final image will be sent to.*/
+    private static final String HTML_GZIP_FILENAME = "out.html.gz";
+
     /** the font of the html file.*/
     private static final String HTML_FONT = "Courier New";
 
@@ -119,6 +186,12 @@ public class Shell {
 
     private static final int RES_MULTIPLIER = 2;
 
+    /** The most memory the cache of earlier renders may take, in bytes.*/
+    private static final long RENDER_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /** Number of brightness buckets in the char matcher's lookup tables.*/
+    private static final int LOOKUP_BUCKETS = 4096;
+
     /** minimum number of characters that can be in use.*/
     private static final int MIN_CHARS = 2;
 
@@ -171,7 +244,24 @@ public class Shell {
     /**
      * Error message displayed when the program is not run with exactly one argument (image path).
      */
-    private static final String MAIN_ERROR = "Usage: java Shell <image path>";
+    private static final String MAIN_ERROR = "Usage: java Shell <image path>\n       " +
+            BatchConverter.USAGE + "\n       " + ConversionServer.USAGE + "\n       " +
+            AnimationConverter.USAGE;
+
+    /** First argument that runs a headless batch conversion instead of the interactive shell.*/
+    private static final String BATCH = "--batch";
+
+    /** First argument that starts the conversion server instead of the interactive shell.*/
+    private static final String SERVE = "--serve";
+
+    /** First argument that converts an animation instead of running the interactive shell.*/
+    private static final String ANIMATE = "--animate";
+
+    /**
+     * System property naming a glyph cache file. When set, glyphs are loaded from it on
+     * startup and saved back to it on exit, so later runs skip rendering them.
+     */
+    private static final String GLYPH_CACHE_PROPERTY = "ascii_art.glyphCache";
 
     /**
      * Default error message printed when an unrecognized command is entered by the user.
@@ -181,8 +271,15 @@ public class Shell {
     /** The path to the image we are using.*/
     private final String imagePath;
 
-    /** the object of type Image that we are portraying.*/
-    private final Image image;
+    /** the object of type Image that we are portraying. Loaded on the first in-memory
+     * run, never when streaming.*/
+    private Image image;
+
+    /** The width of the image in pixels.*/
+    private final int imageWidth;
+
+    /** The height of the image in pixels.*/
+    private final int imageHeight;
 
     /** The object ImageProcessor that turned the file path to the Image.*/
     private final ImageProcessor imageProcessor;
@@ -208,6 +305,18 @@ public class Shell {
     /** The rounding mode of the program.*/
     private RoundingMode roundingMode = RoundingMode.ABS;
 
+    /** The pool the algorithm runs on, null when it runs sequentially.*/
+    private ForkJoinPool pool;
+
+    /** Whether the image is drawn band by band straight from the file.*/
+    private boolean streaming;
+
+    /** How many rows of sub-images are decoded at once when streaming by bands.*/
+    private int streamRowsPerBand = StreamingAsciiArtAlgorithm.AUTO_ROWS_PER_BAND;
+
+    /** Earlier boards and brightness grids, so repeated renders are not computed again.*/
+    private final RenderCache renderCache = new RenderCache(RENDER_CACHE_BYTES);
+
 
     /**
      * Constructs a new Shell object responsible for taking care of the ascii art
@@ -217,9 +326,13 @@ public class Shell {
      */
     public Shell(String imagePath) throws IOException {
         this.imagePath = imagePath;
-        this.image = new Image(imagePath);
+        try (BandedImageReader reader = new BandedImageReader(imagePath)) {
+            this.imageWidth = reader.getWidth();
+            this.imageHeight = reader.getHeight();
+        }
         this.imageProcessor = new ImageProcessor();
         this.charMatcher = new SubImgCharMatcher(charArray);
+        this.charMatcher.setLookupTableBuckets(LOOKUP_BUCKETS);
         this.resolution = MIN_CHARS;
         currentOutput = new ConsoleAsciiOutput();
     }
@@ -246,6 +359,7 @@ public class Shell {
             }
             try {
                 if (command.equals(EXIT)) {
+                    setPool(null);
                     break;
                 }
                 if (command.equals(CHANGE_RES)) {
@@ -267,7 +381,8 @@ public class Shell {
                     continue;
                 }
                 if (command.equals(SELECT_OUTPUT)) {
-                    displayForUser(subCommand);
+                    displayForUser(subCommand, tokens.length > OUTPUT_COLOR_BITS_INDEX ?
+                            tokens[OUTPUT_COLOR_BITS_INDEX] : EMPTY);
                     continue;
                 }
                 if (command.equals(ROUND)) {
@@ -278,8 +393,18 @@ public class Shell {
                     runAlgorithm();
                     continue;
                 }
+                if (command.equals(PARALLEL)) {
+                    parallelCommand(subCommand);
+                    continue;
+                }
+                if (command.equals(STREAM)) {
+                    streamCommand(subCommand, tokens.length > STREAM_ROWS_INDEX ?
+                            tokens[STREAM_ROWS_INDEX] : EMPTY);
+                    continue;
+                }
                 System.out.println(DEFAULT_ERR_MESSAGE);
-            } catch (InvalidFormatException | OutOfBoundsException | TooFewCharactersException e){
+            } catch (InvalidFormatException | OutOfBoundsException | TooFewCharactersException |
+                     IOException e){
                 System.out.println(e.getMessage());
             }
         }
@@ -346,8 +471,8 @@ public class Shell {
      * @return true if the resolution is within the boundaries; false otherwise
      */
     private boolean checkBoundries(int newRes) throws OutOfBoundsException {
-        int imgHeight = image.getHeight();
-        int imgWidth = image.getWidth();
+        int imgHeight = imageHeight;
+        int imgWidth = imageWidth;
         int minCharsInRow = max(1, imgWidth / imgHeight);
         if (newRes > imgWidth || minCharsInRow > newRes) {
             throw new OutOfBoundsException(BOUNDRIES_ERR_MESSAGE);
@@ -414,10 +539,7 @@ public class Shell {
      */
     private boolean checkAddAllCommand(String command) {
         if(command.equals(ALL)){
-            for(int i = LOW_INDEX; i <= HIGH_INDEX; i++){
-                char c = (char) i;
-                charMatcher.addChar(c);
-            }
+            charMatcher.addCharRange((char) LOW_INDEX, (char) HIGH_INDEX);
             return true;
         }
         return false;
@@ -431,18 +553,7 @@ public class Shell {
      * @author Maoz Bar Shimon
      */
     private void setAdds(int n, int m){
-        if(n <= m){
-            for(int i = n; i <= m; i++){
-                char c = (char) i;
-                charMatcher.addChar(c);
-            }
-        }
-        else{
-            for(int i = m; i <= n; i++){
-                char c = (char) i;
-                charMatcher.addChar(c);
-            }
-        }
+        charMatcher.addCharRange((char) n, (char) m);
     }
 
     /**
@@ -504,10 +615,7 @@ public class Shell {
      */
     private boolean checkRemoveAllCommand(String command) {
         if(command.equals(ALL)){
-            for(int i = LOW_INDEX; i <= HIGH_INDEX; i++){
-                char c = (char) i;
-                charMatcher.removeChar(c);
-            }
+            charMatcher.removeCharRange((char) LOW_INDEX, (char) HIGH_INDEX);
             return true;
         }
         return false;
@@ -523,18 +631,7 @@ public class Shell {
      * @author Maoz Bar Shimon
      */
     private void setRemove(int n, int m){
-        if(n <= m){
-            for(int i = n; i <= m; i++){
-                char c = (char) i;
-                charMatcher.removeChar(c);
-            }
-        }
-        else{
-            for(int i = m; i <= n; i++){
-                char c = (char) i;
-                charMatcher.removeChar(c);
-            }
-        }
+        charMatcher.removeCharRange((char) n, (char) m);
     }
 
     /**
@@ -548,7 +645,7 @@ public class Shell {
      * @author Maoz Bar Shimon
      */
     private void displayChars(){
-        HashSet<Character> charSet = charMatcher.getCharSet();
+        Set<Character> charSet = charMatcher.getCharSet();
         if(charSet.isEmpty()){
             return;
         }
@@ -565,16 +662,25 @@ public class Shell {
      * <ul>
      *   <li><b>console</b> - Outputs to the terminal using {@link ConsoleAsciiOutput}</li>
      *   <li><b>html</b> - Outputs to an HTML file using {@link HtmlAsciiOutput}</li>
+     *   <li><b>htmlgz</b> - Outputs to a gzip compressed HTML file</li>
+     *   <li><b>ansi</b> - Outputs to the terminal in 24 bit color, using
+     *   {@link AnsiAsciiOutput}</li>
+     *   <li><b>ansi256</b> - Outputs to the terminal in the 256 color palette</li>
+     *   <li><b>htmlcolor</b> - Outputs to an HTML file in the colors of the image, using
+     *   {@link ColorHtmlAsciiOutput}. May be followed by the bits kept of every color
+     *   component, from 1 to 8, fewer bits making smaller files</li>
      * </ul>
      * If an unsupported output type is given, or if the command is incomplete,
      * an error message is printed.
      *
-     * @param command an array of strings representing the user command;
-     *                 the second element specifies the desired output type
+     * @param command   the desired output type
+     * @param colorBits the color bits after "htmlcolor", or empty
+     * @throws InvalidFormatException if the output type is unsupported, or the color bits
+     *                                are not between 1 and 8
      * @author Ishay Shaul
      * @author Maoz Bar Shimon
      */
-    private void displayForUser(String command) throws InvalidFormatException {
+    private void displayForUser(String command, String colorBits) throws InvalidFormatException {
         if(command.equals(EMPTY)){
             throw new InvalidFormatException(OUTPUT_ERROR);
         }
@@ -586,6 +692,23 @@ public class Shell {
             currentOutput = new HtmlAsciiOutput(HTML_FILENAME, HTML_FONT);
             return;
         }
+        if(command.equals(ANSI) || command.equals(ANSI_256)){
+            currentOutput = new AnsiAsciiOutput(command.equals(ANSI));
+            return;
+        }
+        if(command.equals(HTML_COLOR)){
+            int bits = colorBits.equals(EMPTY) ? DEFAULT_HTML_COLOR_BITS :
+                    parsePositive(colorBits, OUTPUT_ERROR);
+            if (bits > MAX_HTML_COLOR_BITS) {
+                throw new InvalidFormatException(OUTPUT_ERROR);
+            }
+            currentOutput = new ColorHtmlAsciiOutput(HTML_FILENAME, HTML_FONT, bits, false);
+            return;
+        }
+        if(command.equals(HTML_GZIP)){
+            currentOutput = new HtmlAsciiOutput(HTML_GZIP_FILENAME, HTML_FONT, true);
+            return;
+        }
         else{
             throw new InvalidFormatException(OUTPUT_ERROR);
         }
@@ -621,20 +744,117 @@ public class Shell {
     }
 
     /**
-     * On command this method will run the asciiArtAlgorithm to get the board
-     * ready for the output
+     * Selects how many threads the asciiArtAlgorithm runs on.
+     *
+     * Supported sub-commands:
+     * - "off" → runs sequentially on the shell's thread
+     * - "on"  → runs in parallel on all available cores
+     * - a positive number n → runs in parallel on n threads, up to MAX_PARALLELISM
+     *
+     * The board that is produced is the same in all cases.
+     *
+     * @param subCommand the parallelism command as a string (e.g., "on", "off", "4")
+     * @throws InvalidFormatException if the sub-command is not one of the above, or the
+     *                                number is larger than MAX_PARALLELISM
+     */
+    private void parallelCommand(String subCommand) throws InvalidFormatException {
+        int parallelism;
+        switch (subCommand) {
+            case OFF:
+                parallelism = 1;
+                break;
+            case ON:
+                parallelism = Runtime.getRuntime().availableProcessors();
+                break;
+            default:
+                parallelism = parsePositive(subCommand, PARALLEL_ERR_MESSAGE);
+                if (parallelism > MAX_PARALLELISM) {
+                    throw new InvalidFormatException(PARALLEL_ERR_MESSAGE);
+                }
+        }
+        setPool(parallelism == 1 ? null : new ForkJoinPool(parallelism));
+        System.out.println(PARALLELISM_SET_MESSAGE + parallelism);
+    }
+
+    /**
+     * Replaces the pool the algorithm runs on, shutting the previous one down.
+     * @param newPool the new pool, or null to run sequentially
+     */
+    private void setPool(ForkJoinPool newPool) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = newPool;
+    }
+
+    /**
+     * Parses a strictly positive decimal number given as a sub command.
+     * @param number       the sub command
+     * @param errorMessage the message of the exception if it is not a positive number
+     * @return the parsed number
+     * @throws InvalidFormatException if the sub command is not a positive number
+     */
+    private static int parsePositive(String number, String errorMessage) throws InvalidFormatException {
+        try {
+            int parsed = Integer.parseInt(number);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below, like any other malformed sub command
+        }
+        throw new InvalidFormatException(errorMessage);
+    }
+
+    /**
+     * Selects whether the image is drawn band by band straight from the file
+     * ("on") or loaded into memory as a whole ("off"). Both produce the same board,
+     * streaming lets images that do not fit in memory be drawn. "on" may be followed by
+     * the number of rows of sub-images decoded at once when the file cannot be decoded in
+     * a single pass; without it the bands are as tall as a memory budget allows.
+     *
+     * @param subCommand "on" or "off"
+     * @param rows       the rows per band after "on", or empty
+     * @throws InvalidFormatException if the sub-command is neither, or rows is not positive
+     */
+    private void streamCommand(String subCommand, String rows) throws InvalidFormatException {
+        switch (subCommand) {
+            case ON:
+                streamRowsPerBand = rows.equals(EMPTY) ? StreamingAsciiArtAlgorithm.AUTO_ROWS_PER_BAND :
+                        parsePositive(rows, STREAM_ERR_MESSAGE);
+                streaming = true;
+                break;
+            case OFF:
+                streaming = false;
+                break;
+            default:
+                throw new InvalidFormatException(STREAM_ERR_MESSAGE);
+        }
+    }
+
+    /**
+     * On command this method will run the asciiArtAlgorithm and write the board to the
+     * current output, row by row as it is drawn
+     * @throws IOException if the image cannot be read
      * @author Ishay Shaul
      * @author Maoz Bar Shimon
      */
-    private void runAlgorithm(){
-        this.asciiArtAlgorithm = new AsciiArtAlgorithm(image, resolution,
-                imageProcessor, charMatcher, roundingMode);
-        TreeMap<Character, Double> charTreeMap = charMatcher.getCharBrightnessMap();
+    private void runAlgorithm() throws IOException {
+        SortedMap<Character, Double> charTreeMap = charMatcher.getCharBrightnessMap();
         if(charTreeMap.size() <= MIN_CHARS){
             throw new TooFewCharactersException(MIN_CHARS_ERROR);
         }
-        char[][] board = asciiArtAlgorithm.run();
-        currentOutput.out(board);
+        if (streaming) {
+            new StreamingAsciiArtAlgorithm(imagePath, resolution, charMatcher,
+                    roundingMode, streamRowsPerBand).run(currentOutput);
+        } else {
+            if (image == null) {
+                image = new Image(imagePath);
+            }
+            this.asciiArtAlgorithm = new AsciiArtAlgorithm(image, resolution,
+                    imageProcessor, charMatcher, roundingMode, pool, renderCache);
+            asciiArtAlgorithm.run(currentOutput);
+        }
     }
 
     /**
@@ -643,16 +863,39 @@ public class Shell {
      * Expects a single argument: the path to an image file.
      * Initializes the {@code Shell} and runs the command loop.
      * Prints an error message if an exception occurs.
+     * If the {@code ascii_art.glyphCache} system property names a file, the rendered
+     * glyphs are loaded from it first and saved back to it at the end.
+     * When the first argument is {@code --batch} or {@code --serve}, the rest are handed to
+     * {@link BatchConverter} or {@link ConversionServer} and no shell is started.
      *
      * @param args command-line arguments (expects one: image path)
      */
     public static void main (String[] args){
-        if (args.length != 1) {
+        boolean batch = args.length > 0 && args[0].equals(BATCH);
+        boolean serve = args.length > 0 && args[0].equals(SERVE);
+        boolean animate = args.length > 0 && args[0].equals(ANIMATE);
+        if (args.length != 1 && !batch && !serve && !animate) {
             System.out.println(MAIN_ERROR);
             return;
         }
 
+        String glyphCache = System.getProperty(GLYPH_CACHE_PROPERTY);
+        if (glyphCache != null) {
+            GlyphCache.load(Path.of(glyphCache));
+        }
         try {
+            if (batch) {
+                BatchConverter.main(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
+            if (serve) {
+                ConversionServer.main(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
+            if (animate) {
+                AnimationConverter.main(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
             Shell shell = new Shell(args[0]);
             shell.run(shell.imagePath);
         } catch (
@@ -661,6 +904,10 @@ public class Shell {
                  IOException e) {
             System.out.println(e.getMessage());
 
+        } finally {
+            if (glyphCache != null) {
+                GlyphCache.save(Path.of(glyphCache));
+            }
         }
     }
 }
@@ -0,0 +1,135 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+import ascii_output.ColorAsciiOutput;
+import image.BandedImageReader;
+import image_char_matching.CharsetSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.IOException;
+
+/**
+ * Produces the same ascii art as {@link AsciiArtAlgorithm}, straight from an image file
+ * and with bounded memory: the image is decoded in bands of rows of sub-images, each band
+ * is turned into rows of the board and then dropped. Only the board itself and a single
+ * band are ever in memory, so images too large to be loaded as a whole can be drawn.
+ * <p>
+ * Baseline JPEG and plain PNG files are decoded in one sequential pass and handed over a
+ * row of sub-images at a time. Other files are decoded band by band, and since a band of
+ * a JPEG or similar file costs a decode of everything above it, the bands are as tall as
+ * a memory budget allows unless a number of rows per band is given.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see BandedImageReader
+ */
+public class StreamingAsciiArtAlgorithm {
+    /** The path to the image that is being drawn.*/
+    private final String imagePath;
+
+    /** The resolution of the image.*/
+    private final int resolutionsPerRow;
+
+    /** The characters the art is drawn with, as they were when the algorithm was built.*/
+    private final CharsetSnapshot charset;
+
+    /** The formula used for finding nearest brightness.*/
+    private final RoundingMode roundingMode;
+
+    /** Chooses the number of rows per band from {@link #BAND_MEMORY_BYTES}.*/
+    public static final int AUTO_ROWS_PER_BAND = 0;
+
+    /** The memory a decoded band may take when the rows per band are chosen automatically.*/
+    private static final long BAND_MEMORY_BYTES = 64L << 20;
+
+    /** How many rows of sub-images are decoded at once, or AUTO_ROWS_PER_BAND.*/
+    private final int rowsPerBand;
+
+    /**
+     * Constructs a streaming algorithm.
+     * @param imagePath         the path to the image converted to ascii art
+     * @param resolutionsPerRow how many sub images will be per row
+     * @param charMatcher       measures brightness, as well as adding and removing chars
+     * @param roundingMode      the rounding mode used to select chars based on brightness values
+     * @param rowsPerBand       how many rows of sub-images are decoded at once when the file
+     *                          is read by bands, 1 keeps the least in memory and more rows
+     *                          decode faster; {@link #AUTO_ROWS_PER_BAND} fits the bands
+     *                          to a memory budget
+     */
+    public StreamingAsciiArtAlgorithm(String imagePath, int resolutionsPerRow,
+                                      SubImgCharMatcher charMatcher, RoundingMode roundingMode,
+                                      int rowsPerBand) {
+        this.imagePath = imagePath;
+        this.resolutionsPerRow = resolutionsPerRow;
+        this.charset = charMatcher.snapshot();
+        this.roundingMode = roundingMode;
+        this.rowsPerBand = rowsPerBand;
+    }
+
+    /**
+     * Returns a 2d array representing the ascii art version of the image, built one band
+     * of rows at a time.
+     * @return The ascii Art
+     * @throws IOException if the image cannot be read
+     */
+    public char[][] run() throws IOException {
+        BoardOutput board = new BoardOutput();
+        run(board);
+        return board.rows;
+    }
+
+    /**
+     * Draws the ascii art straight to an output, writing every row as soon as its band
+     * is decoded, so neither the image nor the board is ever held as a whole.
+     * A {@link ColorAsciiOutput} gets the average color of every sub image as well.
+     * @param output where the rows are written
+     * @throws IOException if the image cannot be read
+     */
+    public void run(AsciiOutput output) throws IOException {
+        try (BandedImageReader reader = new BandedImageReader(imagePath)) {
+            int rows = reader.subImageRows(resolutionsPerRow);
+            int bandRows = rowsPerBand == AUTO_ROWS_PER_BAND ?
+                    reader.rowsPerBand(resolutionsPerRow, BAND_MEMORY_BYTES) : rowsPerBand;
+            ColorAsciiOutput colorOutput =
+                    output instanceof ColorAsciiOutput ? (ColorAsciiOutput) output : null;
+            char[] row = new char[resolutionsPerRow];
+            output.begin(rows, resolutionsPerRow);
+            reader.forEachBand(resolutionsPerRow, bandRows, colorOutput != null,
+                    (firstRow, endRow, brightness, colors) -> {
+                for (int i = firstRow; i < endRow; i++) {
+                    for (int j = 0; j < resolutionsPerRow; j++) {
+                        row[j] = charset.getCharByImageBrightness(
+                                brightness[i - firstRow][j], roundingMode);
+                    }
+                    if (colorOutput != null) {
+                        colorOutput.writeRow(row, colors[i - firstRow]);
+                    } else {
+                        output.writeRow(row);
+                    }
+                }
+            });
+            output.end();
+        }
+    }
+
+    /**
+     * An output that keeps a copy of every row, for {@link #run()}.
+     */
+    private static class BoardOutput implements AsciiOutput {
+        private char[][] rows;
+        private int written;
+
+        @Override
+        public void begin(int rows, int columns) {
+            this.rows = new char[rows][];
+        }
+
+        @Override
+        public void writeRow(char[] row) {
+            rows[written++] = row.clone();
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ascii_output;
+
+/**
+ * An object implementing this interface can output a sequence of 2D arrays of chars, the
+ * frames of an animation, in some fashion.
+ * <p>
+ * {@link #begin(int, int)} is called once, {@link #writeFrame(char[][], int)} for every
+ * frame in order, and {@link #end()} once. All the frames have the same size. Writes that
+ * fail do not throw, they are reported by {@link #checkError()} once the animation ended.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+public interface AnimationOutput {
+    /**
+     * Starts an animation of the given frame size.
+     * @param rows    the number of rows of every frame
+     * @param columns the number of chars in every row
+     */
+    void begin(int rows, int columns);
+
+    /**
+     * Outputs the next frame. The array is only read during the call.
+     * @param frame       the chars of the frame
+     * @param delayMillis how long the frame is shown before the next one
+     */
+    void writeFrame(char[][] frame, int delayMillis);
+
+    /**
+     * Ends the animation, after the last frame.
+     */
+    void end();
+
+    /**
+     * Tells whether the animation was written completely, like
+     * {@link java.io.PrintStream#checkError()}.
+     * @return true if a write failed since the animation began
+     */
+    default boolean checkError() {
+        return false;
+    }
+}
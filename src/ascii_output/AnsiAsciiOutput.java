@@ -0,0 +1,194 @@
+package ascii_output;
+
+import java.io.PrintStream;
+
+/**
+ * Output a 2D array of chars to a terminal, every char in the color of its sub image,
+ * using ANSI escape sequences.
+ * <p>
+ * The chars are laid out like {@link ConsoleAsciiOutput} does, each followed by a space.
+ * Colors are either 24 bit (truecolor) or the closest of the 256 colors of the xterm
+ * palette, for terminals without truecolor. An escape sequence is only written when the
+ * color changes, and spaces keep the current one, so runs of a color cost a single
+ * sequence. The text is gathered in a large buffer and printed in few big writes.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see ConsoleAsciiOutput
+ */
+public class AnsiAsciiOutput implements ColorAsciiOutput {
+    private static final char SEPARATOR = ' ';
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private static final String ESCAPE = "\u001b[";
+    private static final String TRUECOLOR = "38;2;";
+    private static final String PALETTE = "38;5;";
+    private static final char PARAMETER_SEPARATOR = ';';
+    private static final char END_OF_SEQUENCE = 'm';
+    private static final String RESET = ESCAPE + "0m";
+
+    /** Number of buffered chars that are printed at once.*/
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    private static final int COMPONENT_MASK = 0xFF;
+    private static final int RGB_MASK = 0xFFFFFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int COMPONENTS = 3;
+
+    /** First palette index of the 6x6x6 color cube.*/
+    private static final int CUBE_START = 16;
+
+    /** Number of levels per component in the color cube.*/
+    private static final int CUBE_SIDE = 6;
+
+    /** The component values of the levels of the color cube.*/
+    private static final int[] CUBE_LEVELS = {0, 95, 135, 175, 215, 255};
+
+    /** First palette index of the grey ramp.*/
+    private static final int GREY_START = 232;
+
+    /** Number of greys in the ramp.*/
+    private static final int GREYS = 24;
+
+    /** The value of the darkest grey, and the step between greys.*/
+    private static final int GREY_OFFSET = 8;
+    private static final int GREY_STEP = 10;
+
+    /** Marks that no color was set, so the terminal's default one is in use.*/
+    private static final int DEFAULT_COLOR = -1;
+
+    private final PrintStream stream;
+
+    /** Whether colors are written in 24 bits, rather than as palette indexes.*/
+    private final boolean truecolor;
+
+    /** Text that was not printed yet.*/
+    private final StringBuilder buffer = new StringBuilder(BUFFER_CHARS);
+
+    /** The color set by the last escape sequence, a packed RGB int or palette index.*/
+    private int currentColor = DEFAULT_COLOR;
+
+    /**
+     * Constructs an output to the console.
+     * @param truecolor true for 24 bit colors, false for the 256 color palette
+     */
+    public AnsiAsciiOutput(boolean truecolor) {
+        this(System.out, truecolor);
+    }
+
+    /**
+     * Constructs an output to any stream, such as a log file.
+     * @param stream    the stream the chars are printed to
+     * @param truecolor true for 24 bit colors, false for the 256 color palette
+     */
+    public AnsiAsciiOutput(PrintStream stream, boolean truecolor) {
+        this.stream = stream;
+        this.truecolor = truecolor;
+    }
+
+    @Override
+    public void begin(int rows, int columns) {
+        buffer.setLength(0);
+        currentColor = DEFAULT_COLOR;
+    }
+
+    @Override
+    public void writeRow(char[] row, int[] colors) {
+        for (int x = 0; x < row.length; x++) {
+            char c = row[x];
+            if (c != SEPARATOR) {
+                setColor(colors == null ? DEFAULT_COLOR : toTerminalColor(colors[x]));
+            }
+            buffer.append(c).append(SEPARATOR);
+        }
+        buffer.append(LINE_SEPARATOR);
+        if (buffer.length() >= BUFFER_CHARS) {
+            printBuffer();
+        }
+    }
+
+    @Override
+    public void end() {
+        setColor(DEFAULT_COLOR);
+        printBuffer();
+        stream.flush();
+    }
+
+    /**
+     * Writes the escape sequence of a color, unless it is the current one.
+     */
+    private void setColor(int color) {
+        if (color == currentColor) {
+            return;
+        }
+        currentColor = color;
+        if (color == DEFAULT_COLOR) {
+            buffer.append(RESET);
+            return;
+        }
+        buffer.append(ESCAPE);
+        if (truecolor) {
+            buffer.append(TRUECOLOR)
+                    .append((color >> RED_SHIFT) & COMPONENT_MASK).append(PARAMETER_SEPARATOR)
+                    .append((color >> GREEN_SHIFT) & COMPONENT_MASK).append(PARAMETER_SEPARATOR)
+                    .append(color & COMPONENT_MASK);
+        } else {
+            buffer.append(PALETTE).append(color);
+        }
+        buffer.append(END_OF_SEQUENCE);
+    }
+
+    private int toTerminalColor(int rgb) {
+        return truecolor ? rgb & RGB_MASK : paletteIndex(rgb);
+    }
+
+    /**
+     * Finds the xterm palette color closest to an RGB color, among the color cube and
+     * the grey ramp.
+     * @param rgb the packed RGB color
+     * @return the palette index, between 16 and 255
+     */
+    static int paletteIndex(int rgb) {
+        int red = (rgb >> RED_SHIFT) & COMPONENT_MASK;
+        int green = (rgb >> GREEN_SHIFT) & COMPONENT_MASK;
+        int blue = rgb & COMPONENT_MASK;
+        int redLevel = closestCubeLevel(red);
+        int greenLevel = closestCubeLevel(green);
+        int blueLevel = closestCubeLevel(blue);
+        int cubeDistance = distance(red, green, blue,
+                CUBE_LEVELS[redLevel], CUBE_LEVELS[greenLevel], CUBE_LEVELS[blueLevel]);
+
+        int average = (red + green + blue) / COMPONENTS;
+        int grey = Math.max(0, Math.min(GREYS - 1, (average - GREY_OFFSET + GREY_STEP / 2) / GREY_STEP));
+        int greyValue = GREY_OFFSET + grey * GREY_STEP;
+        int greyDistance = distance(red, green, blue, greyValue, greyValue, greyValue);
+
+        if (greyDistance < cubeDistance) {
+            return GREY_START + grey;
+        }
+        return CUBE_START + (redLevel * CUBE_SIDE + greenLevel) * CUBE_SIDE + blueLevel;
+    }
+
+    private static int closestCubeLevel(int component) {
+        int best = 0;
+        for (int level = 1; level < CUBE_LEVELS.length; level++) {
+            if (Math.abs(CUBE_LEVELS[level] - component) < Math.abs(CUBE_LEVELS[best] - component)) {
+                best = level;
+            }
+        }
+        return best;
+    }
+
+    private static int distance(int red, int green, int blue, int otherRed, int otherGreen,
+                                int otherBlue) {
+        int dr = red - otherRed;
+        int dg = green - otherGreen;
+        int db = blue - otherBlue;
+        return dr * dr + dg * dg + db * db;
+    }
+
+    private void printBuffer() {
+        stream.append(buffer);
+        buffer.setLength(0);
+    }
+}
@@ -1,13 +1,54 @@
 package ascii_output;
 
+import java.nio.CharBuffer;
+
 /**
  * An object implementing this interface can output a 2D array of chars
  * in some fashion.
+ * <p>
+ * The chars can also be streamed row by row, so a renderer can output every row as soon
+ * as it is ready instead of building the whole board first: {@link #begin(int, int)} once,
+ * {@link #writeRow(char[])} for every row from top to bottom, and {@link #end()} once.
  * @author Dan Nirel
  */
 public interface AsciiOutput {
+    /**
+     * Starts an output of the given size.
+     * @param rows    the number of rows that will be written
+     * @param columns the number of chars in every row
+     */
+    void begin(int rows, int columns);
+
+    /**
+     * Outputs the next row. The array is only read during the call, so the caller may
+     * reuse it for the following row.
+     * @param row the chars of the row
+     */
+    void writeRow(char[] row);
+
+    /**
+     * Outputs the next row, from the position of the buffer to its limit.
+     * @param row the chars of the row
+     */
+    default void writeRow(CharBuffer row) {
+        char[] chars = new char[row.remaining()];
+        row.get(chars);
+        writeRow(chars);
+    }
+
+    /**
+     * Ends the output, after the last row.
+     */
+    void end();
+
     /**
      * Output the specified 2D array of chars
      */
-    void out(char[][] chars);
+    default void out(char[][] chars) {
+        begin(chars.length, chars.length == 0 ? 0 : chars[0].length);
+        for (char[] row : chars) {
+            writeRow(row);
+        }
+        end();
+    }
 }
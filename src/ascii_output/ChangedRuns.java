@@ -0,0 +1,60 @@
+package ascii_output;
+
+/**
+ * Finds the runs of chars of a frame that differ from the previous frame, for outputs that
+ * only write what changed.
+ * <p>
+ * A run lies within a row. Two runs separated by only a few unchanged chars are merged into
+ * one, since rewriting the chars costs less than starting another run.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+final class ChangedRuns {
+    /**
+     * Receives a run of changed chars.
+     */
+    @FunctionalInterface
+    interface RunConsumer {
+        /**
+         * @param row    the row of the run
+         * @param column the column of the first char of the run
+         * @param length the number of chars in the run
+         */
+        void run(int row, int column, int length);
+    }
+
+    private ChangedRuns() {
+    }
+
+    /**
+     * Goes over the changed runs of a frame, from top to bottom and left to right.
+     * @param previous the previous frame, of the same size
+     * @param current  the current frame
+     * @param maxGap   the most unchanged chars that are rewritten to merge two runs
+     * @param consumer receives every run
+     */
+    static void forEach(char[][] previous, char[][] current, int maxGap, RunConsumer consumer) {
+        for (int row = 0; row < current.length; row++) {
+            char[] before = previous[row];
+            char[] after = current[row];
+            int start = -1;
+            int end = -1;
+            for (int column = 0; column < after.length; column++) {
+                if (before[column] == after[column]) {
+                    continue;
+                }
+                if (start >= 0 && column - end > maxGap) {
+                    consumer.run(row, start, end - start);
+                    start = -1;
+                }
+                if (start < 0) {
+                    start = column;
+                }
+                end = column + 1;
+            }
+            if (start >= 0) {
+                consumer.run(row, start, end - start);
+            }
+        }
+    }
+}
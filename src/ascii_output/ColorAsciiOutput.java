@@ -0,0 +1,27 @@
+package ascii_output;
+
+/**
+ * An output that can also draw every char in a color of its own, usually the average
+ * color of the sub image the char stands for.
+ * <p>
+ * Renderers that see such an output compute the colors along with the brightness and
+ * write rows with {@link #writeRow(char[], int[])}. Rows written without colors are drawn
+ * in the output's default color.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+public interface ColorAsciiOutput extends AsciiOutput {
+    /**
+     * Outputs the next row in color. The arrays are only read during the call, so the
+     * caller may reuse them for the following row.
+     * @param row    the chars of the row
+     * @param colors colors[i] is the packed RGB color of row[i], or null for the default
+     *               color
+     */
+    void writeRow(char[] row, int[] colors);
+
+    @Override
+    default void writeRow(char[] row) {
+        writeRow(row, null);
+    }
+}
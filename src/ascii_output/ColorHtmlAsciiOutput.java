@@ -0,0 +1,125 @@
+package ascii_output;
+
+/**
+ * Output a 2D array of chars to an HTML file in which every char is drawn in the average
+ * color of its sub image.
+ * <p>
+ * Colors are quantized to a configurable number of bits per component, and a run of
+ * adjacent chars of the same quantized color, even across rows, shares a single
+ * {@code <span>}. Spaces show no color, so they never break a run. Fewer bits mean longer
+ * runs, hence smaller files that browsers render faster, at the cost of color fidelity.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see HtmlAsciiOutput
+ */
+public class ColorHtmlAsciiOutput extends HtmlAsciiOutput implements ColorAsciiOutput {
+    /** The bits of a full color component.*/
+    private static final int COMPONENT_BITS = 8;
+
+    private static final int COMPONENT_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+
+    /** The color of rows written without colors.*/
+    private static final int DEFAULT_COLOR = 0x000000;
+
+    /** Marks that no span is open.*/
+    private static final int NO_SPAN = -1;
+
+    private static final String SPAN_START = "<span style=\"color:#";
+    private static final String SPAN_START_END = "\">";
+    private static final String SPAN_END = "</span>";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int HEX_DIGIT_BITS = 4;
+    private static final int COLOR_HEX_DIGITS = 6;
+
+    /** The number of bits kept of every color component.*/
+    private final int colorBits;
+
+    /** The current row with its spans, reused from row to row.*/
+    private final StringBuilder line = new StringBuilder();
+
+    /** The quantized color of the open span, or NO_SPAN.*/
+    private int openColor = NO_SPAN;
+
+    /**
+     * Constructs a colored output to an HTML file.
+     * @param filename  the file to write
+     * @param fontName  the font the art is shown in
+     * @param colorBits the number of bits kept of every color component, from 1 to 8
+     * @param gzip      whether to compress the file
+     * @throws IllegalArgumentException if colorBits is not between 1 and 8
+     */
+    public ColorHtmlAsciiOutput(String filename, String fontName, int colorBits, boolean gzip) {
+        super(filename, fontName, gzip);
+        if (colorBits < 1 || colorBits > COMPONENT_BITS) {
+            throw new IllegalArgumentException("colorBits must be between 1 and 8: " + colorBits);
+        }
+        this.colorBits = colorBits;
+    }
+
+    @Override
+    public void begin(int rows, int columns) {
+        openColor = NO_SPAN;
+        super.begin(rows, columns);
+    }
+
+    @Override
+    public void writeRow(char[] row) {
+        writeRow(row, null);
+    }
+
+    @Override
+    public void writeRow(char[] row, int[] colors) {
+        line.setLength(0);
+        for (int x = 0; x < row.length; x++) {
+            char c = row[x];
+            if (c != ' ') {
+                int color = colors == null ? DEFAULT_COLOR : quantize(colors[x]);
+                if (color != openColor) {
+                    if (openColor != NO_SPAN) {
+                        line.append(SPAN_END);
+                    }
+                    line.append(SPAN_START);
+                    appendHex(color);
+                    line.append(SPAN_START_END);
+                    openColor = color;
+                }
+            }
+            appendEscaped(c, line);
+        }
+        line.append(LINE_SEPARATOR);
+        writeChars(line);
+    }
+
+    @Override
+    public void end() {
+        if (openColor != NO_SPAN) {
+            writeChars(SPAN_END);
+            openColor = NO_SPAN;
+        }
+        super.end();
+    }
+
+    /**
+     * Keeps the top colorBits of every component and spreads the result back over the
+     * full range, so that white stays white and black stays black.
+     */
+    private int quantize(int rgb) {
+        return quantizeComponent(rgb >> RED_SHIFT) << RED_SHIFT |
+                quantizeComponent(rgb >> GREEN_SHIFT) << GREEN_SHIFT |
+                quantizeComponent(rgb);
+    }
+
+    private int quantizeComponent(int component) {
+        int levels = (1 << colorBits) - 1;
+        int level = (component & COMPONENT_MASK) >> (COMPONENT_BITS - colorBits);
+        return (level * COMPONENT_MASK + levels / 2) / levels;
+    }
+
+    private void appendHex(int color) {
+        for (int digit = COLOR_HEX_DIGITS - 1; digit >= 0; digit--) {
+            line.append(HEX_DIGITS[(color >> (digit * HEX_DIGIT_BITS)) & (HEX_DIGITS.length - 1)]);
+        }
+    }
+}
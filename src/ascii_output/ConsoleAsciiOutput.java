@@ -1,16 +1,62 @@
 package ascii_output;
 
+import java.io.PrintStream;
+
 /**
  * Output a 2D array of chars to the console.
+ * <p>
+ * Every row is laid out in a reused buffer, each char followed by a space and the row
+ * followed by a line separator, and printed with a single call.
  * @author Dan Nirel
  */public class ConsoleAsciiOutput implements AsciiOutput{
+    private static final char SEPARATOR = ' ';
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final PrintStream stream;
+
+    /** The printed form of a row, reused from row to row.*/
+    private char[] line = new char[LINE_SEPARATOR.length()];
+
+    public ConsoleAsciiOutput() {
+        this(System.out);
+    }
+
+    /**
+     * Outputs to the given stream instead of the console, in the same format.
+     * @param stream the stream the chars are printed to
+     */
+    public ConsoleAsciiOutput(PrintStream stream) {
+        this.stream = stream;
+    }
+
     @Override
-    public void out(char[][] chars) {
-        for (int y = 0; y < chars.length ; y++) {
-            for (int x = 0; x < chars[y].length; x++) {
-                System.out.print(chars[y][x] + " ");
-            }
-            System.out.println();
+    public void begin(int rows, int columns) {
+        ensureLine(columns);
+    }
+
+    @Override
+    public void writeRow(char[] row) {
+        ensureLine(row.length);
+        for (int x = 0; x < row.length; x++) {
+            line[2 * x] = row[x];
+            line[2 * x + 1] = SEPARATOR;
+        }
+        stream.print(line);
+    }
+
+    @Override
+    public void end() {
+        stream.flush();
+    }
+
+    /**
+     * Makes the line buffer exactly fit a row of the given length.
+     */
+    private void ensureLine(int columns) {
+        int length = 2 * columns + LINE_SEPARATOR.length();
+        if (line.length != length) {
+            line = new char[length];
+            LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(), line, 2 * columns);
         }
     }
 }
@@ -0,0 +1,251 @@
+package ascii_output;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+/**
+ * Output an animation to a compact binary file that holds only what changed from frame to
+ * frame, and replays such a file into any other {@link AnimationOutput}.
+ * <p>
+ * The file starts with the magic {@code ASCA}, a version byte and the number of rows and
+ * columns. Every frame then holds its delay, the number of runs of changed chars, and for
+ * every run the number of cells skipped since the end of the previous run (counting the
+ * cells row after row), its length and its chars. All numbers and chars are unsigned
+ * variable-length integers, 7 bits per byte, so ascii chars take a single byte. The first
+ * frame is stored as the changes from a board of NUL chars, which is all of it.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see TerminalAnimationOutput
+ */
+public class DeltaFileAnimationOutput implements AnimationOutput {
+    private static final byte[] MAGIC = {'A', 'S', 'C', 'A'};
+    private static final int VERSION = 1;
+
+    /** The most unchanged chars stored to join two runs, about the cost of starting one.*/
+    private static final int MAX_GAP = 2;
+
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_MORE = 0x80;
+    /** The most bytes of a variable-length integer, enough for 32 bits.*/
+    private static final int VARINT_MAX_BYTES = 5;
+
+    /** The most chars of a frame that is replayed, so a corrupt size cannot exhaust the heap.*/
+    private static final int MAX_CELLS = 1 << 24;
+
+    private final String filename;
+
+    /** The file being written between begin and end, null when none is or it failed.*/
+    private OutputStream stream;
+
+    /** The last frame written, the frame the next one is compared with.*/
+    private char[][] previous;
+    private int columns;
+
+    /** The end of the last run of the current frame, as a cell index.*/
+    private int lastEnd;
+    private int runCount;
+
+    /** Whether a write failed since the animation began.*/
+    private boolean failed;
+
+    /**
+     * Constructs an animation output to a delta file.
+     * @param filename the file to write
+     */
+    public DeltaFileAnimationOutput(String filename) {
+        this.filename = filename;
+    }
+
+    @Override
+    public void begin(int rows, int columns) {
+        this.columns = columns;
+        previous = new char[rows][columns];
+        failed = false;
+        try {
+            stream = new BufferedOutputStream(new FileOutputStream(filename));
+            stream.write(MAGIC);
+            stream.write(VERSION);
+            writeVarint(stream, rows);
+            writeVarint(stream, columns);
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void writeFrame(char[][] frame, int delayMillis) {
+        if (stream == null) {
+            return;
+        }
+        runCount = 0;
+        ChangedRuns.forEach(previous, frame, MAX_GAP, (row, column, length) -> runCount++);
+        lastEnd = 0;
+        try {
+            writeVarint(stream, delayMillis);
+            writeVarint(stream, runCount);
+            ChangedRuns.forEach(previous, frame, MAX_GAP, (row, column, length) -> {
+                int start = row * columns + column;
+                try {
+                    writeVarint(stream, start - lastEnd);
+                    writeVarint(stream, length);
+                    for (int x = column; x < column + length; x++) {
+                        writeVarint(stream, frame[row][x]);
+                    }
+                } catch (IOException e) {
+                    throw new WriteFailure(e);
+                }
+                lastEnd = start + length;
+            });
+        } catch (IOException | WriteFailure e) {
+            fail();
+            return;
+        }
+        for (int row = 0; row < frame.length; row++) {
+            System.arraycopy(frame[row], 0, previous[row], 0, columns);
+        }
+    }
+
+    @Override
+    public void end() {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+            stream = null;
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public boolean checkError() {
+        return failed;
+    }
+
+    /**
+     * Reads a delta file and writes every frame it holds, whole, to another output.
+     * @param filename the file written by a {@link DeltaFileAnimationOutput}
+     * @param output   where the frames are written
+     * @return the number of frames
+     * @throws IOException if the file cannot be read, is not a delta file or is corrupt
+     */
+    public static int replay(String filename, AnimationOutput output) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename))) {
+            for (byte expected : MAGIC) {
+                if (in.read() != expected) {
+                    throw new IOException(filename + " is not an ascii animation");
+                }
+            }
+            if (in.read() != VERSION) {
+                throw new IOException("Unsupported version of " + filename);
+            }
+            int rows = readVarint(in);
+            int columns = readVarint(in);
+            if (rows <= 0 || columns <= 0 || (long) rows * columns > MAX_CELLS) {
+                throw new IOException("Bad size " + rows + "x" + columns + " in " + filename);
+            }
+            int cells = rows * columns;
+            char[][] board = new char[rows][columns];
+            int frames = 0;
+            output.begin(rows, columns);
+            for (int first = in.read(); first >= 0; first = in.read()) {
+                int delayMillis = readVarint(in, first);
+                int runs = readVarint(in);
+                int cell = 0;
+                for (int run = 0; run < runs; run++) {
+                    long start = (long) cell + readVarint(in);
+                    int length = readVarint(in);
+                    if (start + length > cells) {
+                        throw new IOException("Corrupt frame " + frames + " in " + filename);
+                    }
+                    for (cell = (int) start; cell < start + length; cell++) {
+                        int value = readVarint(in);
+                        if (value > Character.MAX_VALUE) {
+                            throw new IOException("Corrupt frame " + frames + " in " + filename);
+                        }
+                        board[cell / columns][cell % columns] = (char) value;
+                    }
+                }
+                output.writeFrame(board, delayMillis);
+                frames++;
+            }
+            output.end();
+            return frames;
+        }
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~VARINT_MASK) != 0) {
+            out.write((value & VARINT_MASK) | VARINT_MORE);
+            value >>>= VARINT_BITS;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        return readVarint(in, in.read());
+    }
+
+    /**
+     * Reads a variable-length integer whose first byte was already read.
+     * @return a value between 0 and {@link Integer#MAX_VALUE}
+     * @throws IOException if the file ends first, or the value is too long or too large
+     */
+    private static int readVarint(InputStream in, int first) throws IOException {
+        long value = 0;
+        int b = first;
+        for (int i = 0; ; i++) {
+            if (b < 0) {
+                throw new EOFException("Truncated ascii animation");
+            }
+            value |= (long) (b & VARINT_MASK) << (i * VARINT_BITS);
+            if ((b & VARINT_MORE) == 0) {
+                break;
+            }
+            if (i == VARINT_MAX_BYTES - 1) {
+                throw new IOException("Number too long in ascii animation");
+            }
+            b = in.read();
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Number out of range in ascii animation");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reports a failed write and drops the rest of the output.
+     */
+    private void fail() {
+        failed = true;
+        Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        try {
+            if (stream != null) {
+                stream.close();
+            }
+        } catch (IOException e) {
+            // already reported
+        }
+        stream = null;
+    }
+
+    /**
+     * Carries a failed write out of a run consumer, which cannot throw checked exceptions.
+     */
+    private static final class WriteFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private WriteFailure(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ascii_output;
+
+/**
+ * Output an animation to a single, self-contained HTML file viewable in a web browser.
+ * <p>
+ * Every frame is a hidden block of preformatted text holding its delay, and a few lines of
+ * inline script show one frame after the other, in a loop. The page needs no other file.
+ * The page is written by an {@link HtmlAsciiOutput} with its own header and footer, so the
+ * frames are styled and escaped like a single image is, and appended to the file through
+ * the same buffered channel as they arrive. The animation is never held in memory as a
+ * whole.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see HtmlAsciiOutput
+ */
+public class HtmlAnimationOutput implements AnimationOutput {
+    /** Delays up to this one are too short to show a frame, browsers do the same with GIFs.*/
+    private static final int MAX_IGNORED_DELAY_MILLIS = 10;
+
+    /** The delay shown instead of one that is too short, the common default of browsers.*/
+    private static final int DEFAULT_DELAY_MILLIS = 100;
+
+    private static final String FRAME_START = "<pre data-delay=\"%d\" hidden>";
+    private static final String FRAME_END = "</pre>\n";
+
+    /** Shows the frames in turn, each for its delay, over and over.*/
+    private static final String PLAYER =
+            "<script>\n" +
+            "var frames = document.getElementsByTagName(\"pre\");\n" +
+            "var current = 0;\n" +
+            "function next() {\n" +
+            "    frames[current].hidden = true;\n" +
+            "    current = (current + 1) % frames.length;\n" +
+            "    frames[current].hidden = false;\n" +
+            "    setTimeout(next, frames[current].dataset.delay);\n" +
+            "}\n" +
+            "if (frames.length > 0) {\n" +
+            "    frames[0].hidden = false;\n" +
+            "    setTimeout(next, frames[0].dataset.delay);\n" +
+            "}\n" +
+            "</script>\n";
+
+    /** The file the frames are written to.*/
+    private final HtmlAsciiOutput page;
+
+    /** The current frame, escaped, reused from frame to frame.*/
+    private final StringBuilder frameText = new StringBuilder();
+
+    /**
+     * Constructs an animation output to an HTML file.
+     * @param filename the file to write
+     * @param fontName the font the frames are shown in
+     */
+    public HtmlAnimationOutput(String filename, String fontName) {
+        page = new HtmlAsciiOutput(filename, fontName) {
+            @Override
+            String header(int columns) {
+                return "<!DOCTYPE html>\n"+
+                       "<html>\n"+
+                       "<head>\n"+
+                       "<style>\n"+
+                       "pre {"+
+                           "\tCOLOR:#000000;"+
+                           "\tMARGIN:0;"+
+                           "\tTEXT-ALIGN:center;"+
+                           fontStyle(fontName, Math.max(1, columns)) + "}\n"+
+                       "</style>\n"+
+                       "</head>\n"+
+                       "<body>\n";
+            }
+
+            @Override
+            String footer() {
+                return PLAYER +
+                       "</body>\n"+
+                       "</html>\n";
+            }
+        };
+    }
+
+    @Override
+    public void begin(int rows, int columns) {
+        page.begin(rows, columns);
+    }
+
+    @Override
+    public void writeFrame(char[][] frame, int delayMillis) {
+        int delay = delayMillis <= MAX_IGNORED_DELAY_MILLIS ? DEFAULT_DELAY_MILLIS : delayMillis;
+        frameText.setLength(0);
+        frameText.append(String.format(FRAME_START, delay));
+        for (char[] row : frame) {
+            for (char c : row) {
+                HtmlAsciiOutput.appendEscaped(c, frameText);
+            }
+            frameText.append(HtmlAsciiOutput.LINE_SEPARATOR);
+        }
+        frameText.append(FRAME_END);
+        page.writeChars(frameText);
+    }
+
+    @Override
+    public void end() {
+        page.end();
+    }
+
+    @Override
+    public boolean checkError() {
+        return page.checkError();
+    }
+}
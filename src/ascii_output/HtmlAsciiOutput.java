@@ -1,63 +1,325 @@
 package ascii_output;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Output a 2D array of chars to an HTML file viewable in a web browser.
+ * <p>
+ * When streamed, the file is opened by {@link #begin(int, int)}, every row is appended as
+ * it arrives and the file is closed by {@link #end()}. Every row is escaped into a reused
+ * char buffer through a table of the escaped form of each ASCII char, then encoded into a
+ * large byte buffer that goes to the file through its channel, so no string is created
+ * per char and the file is written in few, large blocks. The bytes are the same as those
+ * a {@link java.io.FileWriter} would write. The file can also be gzip compressed.
  * @author Dan Nirel
  */
 public class HtmlAsciiOutput implements AsciiOutput {
     private static final double BASE_LINE_SPACING = 0.8;
     private static final double BASE_FONT_SIZE = 150.0;
+    /** Separates the rows of the art.*/
+    static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Size of the byte buffer that is written to the file at once.*/
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    /** Longest escaped form of a char.*/
+    private static final int MAX_ESCAPE_LENGTH = 5;
+
+    /** The escaped form of every ASCII char that needs one, null for the rest.*/
+    private static final char[][] ESCAPES = new char[128][];
+
+    static {
+        ESCAPES['<'] = "&lt;".toCharArray();
+        ESCAPES['>'] = "&gt;".toCharArray();
+        ESCAPES['&'] = "&amp;".toCharArray();
+    }
 
     private final String fontName;
     private final String filename;
 
+    /** Whether the file is gzip compressed.*/
+    private final boolean gzip;
+
+    /** The escaped form of the current row, reused from row to row.*/
+    private char[] row = new char[0];
+
+    /** The file being written between begin and end, null when none is or it failed.*/
+    private FileChannel channel;
+
+    /** The compressing stream over the channel, null when the file is not compressed.*/
+    private OutputStream compressed;
+
+    /** Encoded bytes that were not written to the file yet.*/
+    private ByteBuffer bytes;
+
+    private CharsetEncoder encoder;
+
+    /** Whether a write failed since the output began.*/
+    private boolean failed;
+
     public HtmlAsciiOutput(String filename, String fontName) {
+        this(filename, fontName, false);
+    }
+
+    /**
+     * Constructs an output to an HTML file that may be gzip compressed, which makes the
+     * file many times smaller. Such files are usually named {@code .html.gz}.
+     * @param filename the file to write
+     * @param fontName the font the art is shown in
+     * @param gzip     whether to compress the file
+     */
+    public HtmlAsciiOutput(String filename, String fontName, boolean gzip) {
         this.fontName = fontName;
         this.filename = filename;
+        this.gzip = gzip;
     }
 
     @Override
-    public void out(char[][] chars) {
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.format(
-                "<!DOCTYPE html>\n"+
-                "<html>\n"+
-                "<body style=\""+
-                    "\tCOLOR:#000000;"+
-                    "\tTEXT-ALIGN:center;"+
-                    "\tFONT-SIZE:1px;\">\n"+
-                "<p style=\""+
-                    "\twhite-space:pre;"+
-                    "\tFONT-FAMILY:%s;"+
-                    "\tFONT-SIZE:%frem;"+
-                    "\tLETTER-SPACING:0.15em;"+
-                    "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING));
-
-            for(int y = 0 ; y < chars.length ; y++) {
-                for (int x = 0; x < chars[y].length ; x++) {
-                    String htmlRep;
-                    switch(chars[y][x]) {
-                        case '<': htmlRep = "&lt;";  break;
-                        case '>': htmlRep = "&gt;";  break;
-                        case '&': htmlRep = "&amp;"; break;
-                        default:  htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
-                }
-                writer.newLine();
+    public void begin(int rows, int columns) {
+        failed = false;
+        try {
+            channel = FileChannel.open(Path.of(filename), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            if (gzip) {
+                compressed = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES);
+                bytes = ByteBuffer.allocate(BUFFER_BYTES);
+            } else {
+                bytes = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            }
+            // the same replacement of unmappable chars as FileWriter
+            encoder = Charset.defaultCharset().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encode(CharBuffer.wrap(header(columns)), false);
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void writeRow(char[] row) {
+        if (channel == null) {
+            return;
+        }
+        int length = escapeRow(row);
+        writeChars(CharBuffer.wrap(this.row, 0, length));
+    }
+
+    /**
+     * Appends chars to the file, for outputs that lay rows out differently.
+     * Does nothing when the file is not open.
+     * @param chars the chars to append
+     */
+    void writeChars(CharSequence chars) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            encode(chars instanceof CharBuffer ? (CharBuffer) chars : CharBuffer.wrap(chars),
+                    false);
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Appends a char to a row, escaped if HTML requires it.
+     * @param c   the char
+     * @param out the row being built
+     */
+    static void appendEscaped(char c, StringBuilder out) {
+        char[] escape = c < ESCAPES.length ? ESCAPES[c] : null;
+        if (escape == null) {
+            out.append(c);
+        } else {
+            out.append(escape);
+        }
+    }
+
+    @Override
+    public void end() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            encode(CharBuffer.wrap(footer()), true);
+            drain(encoder.flush(bytes));
+            flushBytes();
+            if (compressed != null) {
+                compressed.close();
+            }
+            channel.close();
+            channel = null;
+            compressed = null;
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Writes the HTML page of the specified 2D array of chars to a writer, such as the
+     * body of an HTTP response. The writer is neither flushed nor closed.
+     * @param chars  the art to write
+     * @param writer where the page is written
+     * @throws IOException if the writer fails
+     */
+    public void write(char[][] chars, Writer writer) throws IOException {
+        writer.write(header(chars[0].length));
+        for (char[] line : chars) {
+            int length = escapeRow(line);
+            writer.write(row, 0, length);
+        }
+        writer.write(footer());
+    }
+
+    /**
+     * Returns the beginning of the page, up to the first row, which sizes the font so that
+     * the given number of columns fits the page.
+     * @param columns the number of chars in every row
+     * @return the header of the page
+     */
+    String header(int columns) {
+        return String.format(
+            "<!DOCTYPE html>\n"+
+            "<html>\n"+
+            "<body style=\""+
+                "\tCOLOR:#000000;"+
+                "\tTEXT-ALIGN:center;"+
+                "\tFONT-SIZE:1px;\">\n"+
+            "<p style=\""+
+                "\twhite-space:pre;"+
+                "%s\">\n",
+                fontStyle(fontName, columns));
+    }
+
+    /**
+     * Returns the declarations that set the font of the art, so that the given number of
+     * columns fits the page, each preceded by a tab.
+     * @param fontName the font the art is shown in
+     * @param columns  the number of chars in every row
+     * @return the style of the text of the art
+     */
+    static String fontStyle(String fontName, int columns) {
+        return String.format(
+            "\tFONT-FAMILY:%s;"+
+            "\tFONT-SIZE:%frem;"+
+            "\tLETTER-SPACING:0.15em;"+
+            "\tLINE-HEIGHT:%fem;",
+            fontName, BASE_FONT_SIZE/columns, BASE_LINE_SPACING);
+    }
+
+    /**
+     * Returns the end of the page, after the last row.
+     * @return the footer of the page
+     */
+    String footer() {
+        return "</p>\n"+
+               "</body>\n"+
+               "</html>\n";
+    }
+
+    /**
+     * Escapes a row followed by a line separator into the row buffer.
+     * @return the number of chars in the buffer
+     */
+    private int escapeRow(char[] line) {
+        int capacity = line.length * MAX_ESCAPE_LENGTH + LINE_SEPARATOR.length();
+        if (row.length < capacity) {
+            row = new char[capacity];
+        }
+        int length = 0;
+        for (char c : line) {
+            char[] escape = c < ESCAPES.length ? ESCAPES[c] : null;
+            if (escape == null) {
+                row[length++] = c;
+            } else {
+                System.arraycopy(escape, 0, row, length, escape.length);
+                length += escape.length;
+            }
+        }
+        LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(), row, length);
+        return length + LINE_SEPARATOR.length();
+    }
+
+    /**
+     * Encodes chars into the byte buffer, writing it out whenever it fills up.
+     * @param last whether these are the last chars of the file
+     */
+    private void encode(CharBuffer chars, boolean last) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, last);
+            if (!result.isOverflow()) {
+                return;
+            }
+            flushBytes();
+        }
+    }
+
+    /**
+     * Writes out the byte buffer until the encoder has nothing left to flush.
+     */
+    private void drain(CoderResult result) throws IOException {
+        while (result.isOverflow()) {
+            flushBytes();
+            result = encoder.flush(bytes);
+        }
+    }
+
+    /**
+     * Writes the encoded bytes to the file and empties the buffer.
+     */
+    private void flushBytes() throws IOException {
+        bytes.flip();
+        if (compressed != null) {
+            compressed.write(bytes.array(), bytes.position(), bytes.remaining());
+        } else {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Tells whether the file was written completely, like {@link java.io.PrintStream#checkError()}:
+     * writes that fail are logged and stop the output rather than throw.
+     * @return true if a write failed since the output began
+     */
+    public boolean checkError() {
+        return failed;
+    }
+
+    /**
+     * Reports a failed write and drops the rest of the output.
+     */
+    private void fail() {
+        failed = true;
+        Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        try {
+            if (compressed != null) {
+                compressed.close();
+            }
+            if (channel != null) {
+                channel.close();
             }
-            writer.write(
-                "</p>\n"+
-                "</body>\n"+
-                "</html>\n");
         } catch(IOException e) {
-            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+            // already reported
         }
+        channel = null;
+        compressed = null;
     }
 }
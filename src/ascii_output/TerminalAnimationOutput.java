@@ -0,0 +1,167 @@
+package ascii_output;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays an animation in a terminal, or writes it as a stream that plays when printed
+ * to one, for example with {@code cat}.
+ * <p>
+ * Every frame is laid out like {@link ConsoleAsciiOutput} does, each char followed by a
+ * space, and is preceded by the ANSI escape sequence that moves the cursor to the top left
+ * corner, so it is drawn over the previous frame. A whole frame is printed in one call.
+ * When played in real time, every frame is held for its delay, measured from when the
+ * previous one was due so that time spent rendering is not added to it.
+ * <p>
+ * In delta mode only the first frame is drawn whole. Every following frame is compared
+ * with the previous one, and only the runs of chars that changed are written, each one
+ * after an escape sequence that moves the cursor to it. A mostly still scene then costs a
+ * few bytes per frame instead of the whole screen.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see ConsoleAsciiOutput
+ */
+public class TerminalAnimationOutput implements AnimationOutput {
+    private static final char SEPARATOR = ' ';
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private static final String ESCAPE = "\u001b[";
+    private static final String CLEAR_SCREEN = ESCAPE + "2J";
+    private static final String CURSOR_HOME = ESCAPE + "H";
+    private static final String HIDE_CURSOR = ESCAPE + "?25l";
+    private static final String SHOW_CURSOR = ESCAPE + "?25h";
+    private static final char POSITION_SEPARATOR = ';';
+    private static final char END_OF_POSITION = 'H';
+
+    /** The most unchanged chars rewritten to join two runs, about the cost of a move.*/
+    private static final int MAX_GAP = 3;
+
+    private final PrintStream stream;
+
+    /** Whether every frame is held for its delay.*/
+    private final boolean realTime;
+
+    /** Whether only the changes between frames are written.*/
+    private final boolean delta;
+
+    /** The printed form of a frame, reused from frame to frame.*/
+    private final StringBuilder buffer = new StringBuilder();
+
+    /** The last frame written in delta mode, null before the first one.*/
+    private char[][] previous;
+
+    /** When the next frame is due, in System.nanoTime() units.*/
+    private long nextFrameDue;
+
+    /**
+     * Constructs an animation output.
+     * @param stream   the stream the frames are printed to
+     * @param realTime true to hold every frame for its delay, false to print the frames
+     *                 as fast as they come, such as into a file
+     */
+    public TerminalAnimationOutput(PrintStream stream, boolean realTime) {
+        this(stream, realTime, false);
+    }
+
+    /**
+     * Constructs an animation output that may only write the changes between frames.
+     * @param stream   the stream the frames are printed to
+     * @param realTime true to hold every frame for its delay, false to print the frames
+     *                 as fast as they come, such as into a file
+     * @param delta    true to write only the chars that changed since the previous frame
+     */
+    public TerminalAnimationOutput(PrintStream stream, boolean realTime, boolean delta) {
+        this.stream = stream;
+        this.realTime = realTime;
+        this.delta = delta;
+    }
+
+    @Override
+    public void begin(int rows, int columns) {
+        stream.print(HIDE_CURSOR + CLEAR_SCREEN);
+        nextFrameDue = System.nanoTime();
+        previous = null;
+    }
+
+    @Override
+    public void writeFrame(char[][] frame, int delayMillis) {
+        buffer.setLength(0);
+        if (delta && previous != null) {
+            ChangedRuns.forEach(previous, frame, MAX_GAP, (row, column, length) -> {
+                // rows and columns of the terminal count from 1, every char takes two columns
+                buffer.append(ESCAPE).append(row + 1).append(POSITION_SEPARATOR)
+                        .append(2 * column + 1).append(END_OF_POSITION);
+                for (int x = column; x < column + length; x++) {
+                    buffer.append(frame[row][x]).append(SEPARATOR);
+                }
+            });
+        } else {
+            buffer.append(CURSOR_HOME);
+            for (char[] row : frame) {
+                for (char c : row) {
+                    buffer.append(c).append(SEPARATOR);
+                }
+                buffer.append(LINE_SEPARATOR);
+            }
+        }
+        if (delta) {
+            keep(frame);
+        }
+        waitUntilDue();
+        stream.append(buffer);
+        stream.flush();
+        nextFrameDue += TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    @Override
+    public void end() {
+        waitUntilDue();
+        if (previous != null) {
+            // leave the cursor below the animation, where a full frame would have left it
+            stream.print(ESCAPE + (previous.length + 1) + POSITION_SEPARATOR + 1 + END_OF_POSITION);
+        }
+        stream.print(SHOW_CURSOR);
+        stream.flush();
+    }
+
+    @Override
+    public boolean checkError() {
+        return stream.checkError();
+    }
+
+    /**
+     * Copies a frame to compare the next one with, reusing the previous copy.
+     */
+    private void keep(char[][] frame) {
+        if (previous == null || previous.length != frame.length) {
+            previous = new char[frame.length][];
+        }
+        for (int row = 0; row < frame.length; row++) {
+            if (previous[row] == null || previous[row].length != frame[row].length) {
+                previous[row] = frame[row].clone();
+            } else {
+                System.arraycopy(frame[row], 0, previous[row], 0, frame[row].length);
+            }
+        }
+    }
+
+    /**
+     * Sleeps until the current frame is due, when playing in real time.
+     */
+    private void waitUntilDue() {
+        if (!realTime) {
+            return;
+        }
+        long wait = nextFrameDue - System.nanoTime();
+        if (wait <= 0) {
+            // behind schedule, do not try to catch up by skipping the delays
+            nextFrameDue = System.nanoTime();
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,559 @@
+package image;
+
+import org.w3c.dom.NodeList;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Reads the brightness of the sub-images of an image file band by band, without ever
+ * holding the whole decoded image in memory.
+ * <p>
+ * A band is a horizontal strip of whole rows of sub-images. It is decoded on its own with
+ * {@link ImageReadParam#setSourceRegion(Rectangle)}, summed into brightness values and
+ * dropped, so the memory used is proportional to the width of the image times the height
+ * of a band. The image is padded to powers of two exactly like
+ * {@link ImageProcessor#padToPowerOfTwo(Image)} does, but the white padding is accounted
+ * for arithmetically rather than stored. The brightness values are the same as the ones
+ * of {@link SubImage#calculateBrightness()} on the padded image.
+ * <p>
+ * Baseline JPEG and non-interlaced PNG files with 8 bit samples are read in a single
+ * sequential pass instead: the decoder writes its rows into a ring of a few rows, and a
+ * read listener sums every row as soon as it is decoded, so every row of sub-images is
+ * delivered the moment its last pixel row is known. Any other file is read band by band,
+ * each band decoded on its own with {@link ImageReadParam#setSourceRegion(Rectangle)}.
+ * JPEG and many other formats can only be decoded from the top, so a band read costs a
+ * decode of everything above it and reading n bands costs about n/2 full decodes: for
+ * those files fewer, taller bands trade memory for time, see
+ * {@link #rowsPerBand(int, long)}.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see ImageProcessor
+ */
+public class BandedImageReader implements Closeable {
+    /** The luminance of a white padding pixel.*/
+    private static final int WHITE_LUMINANCE = SubImage.luminance(Image.WHITE_ARGB);
+
+    /** Every component of a white padding pixel.*/
+    private static final int WHITE_COMPONENT = 0xFF;
+
+    /** Number of summed components of a pixel when colors are read.*/
+    private static final int CHANNELS = 3;
+
+    private static final int COMPONENT_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+
+    /** Bytes of a decoded pixel held in memory, as packed ARGB.*/
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /** The formats whose decoders write and report the rows in order, top to bottom.*/
+    private static final Set<String> SEQUENTIAL_FORMATS = Set.of("jpeg", "png");
+    private static final String PROGRESSIVE_SCANS = "NumProgressiveScans";
+    private static final String VALUE = "value";
+    private static final String SINGLE_SCAN = "1";
+
+    /** Number of pixel rows held by the ring of a sequential pass.*/
+    private static final int RING_ROWS = 8;
+
+    /**
+     * Receives the brightness of consecutive rows of sub-images.
+     */
+    @FunctionalInterface
+    public interface BandConsumer {
+        /**
+         * @param firstRow   the first row of sub-images in the band
+         * @param endRow     the row after the last row of the band
+         * @param brightness the brightness of sub-image (row, col) at
+         *                   {@code brightness[row - firstRow][col]}
+         * @param colors     the average color of sub-image (row, col) at
+         *                   {@code colors[row - firstRow][col]}, or null when not asked for
+         * @throws IOException if the band cannot be written
+         */
+        void accept(int firstRow, int endRow, double[][] brightness, int[][] colors)
+                throws IOException;
+    }
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int paddedWidth;
+    private final int paddedHeight;
+
+    /** The type the rows of a sequential pass are decoded to, null to read by bands.*/
+    private final ImageTypeSpecifier sequentialType;
+
+    /**
+     * Opens an image file and reads its dimensions, without decoding any pixel.
+     * @param filename the path to the image
+     * @throws IOException if the file cannot be opened or is not a known image format
+     */
+    public BandedImageReader(String filename) throws IOException {
+        input = ImageIO.createImageInputStream(new File(filename));
+        if (input == null) {
+            throw new IOException("Cannot open " + filename);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        reader = readers.next();
+        reader.setInput(input, false, true);
+        width = reader.getWidth(0);
+        height = reader.getHeight(0);
+        paddedWidth = ImageProcessor.getNewSize(width);
+        paddedHeight = ImageProcessor.getNewSize(height);
+        try {
+            sequentialType = sequentialType();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds out whether the image can be read in one sequential pass: its decoder must
+     * write the rows in order and only once, which rules out progressive JPEG and
+     * interlaced PNG, into 8 bit samples that a ring of rows can hold.
+     * @return the type of the decoded rows, or null if the image is read by bands
+     */
+    private ImageTypeSpecifier sequentialType() throws IOException {
+        if (!SEQUENTIAL_FORMATS.contains(reader.getFormatName().toLowerCase(Locale.ROOT))) {
+            return null;
+        }
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+            return null;
+        }
+        IIOMetadataNode tree = (IIOMetadataNode)
+                metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+        NodeList scans = tree.getElementsByTagName(PROGRESSIVE_SCANS);
+        if (scans.getLength() > 0 &&
+                !SINGLE_SCAN.equals(((IIOMetadataNode) scans.item(0)).getAttribute(VALUE))) {
+            return null;
+        }
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (!types.hasNext()) {
+            return null;
+        }
+        ImageTypeSpecifier type = types.next();
+        SampleModel row = type.getSampleModel(width, 1);
+        if (row.getDataType() != DataBuffer.TYPE_BYTE || !(row instanceof ComponentSampleModel)) {
+            return null;
+        }
+        for (int bank : ((ComponentSampleModel) row).getBankIndices()) {
+            if (bank != 0) {
+                return null;
+            }
+        }
+        return type;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param resolutionsPerRow the number of sub-images per row
+     * @return the number of rows of sub-images of the padded image
+     */
+    public int subImageRows(int resolutionsPerRow) {
+        return paddedHeight / (paddedWidth / resolutionsPerRow);
+    }
+
+    /**
+     * @return whether {@link #forEachBand(int, int, boolean, BandConsumer)} decodes the image
+     *         in a single sequential pass, rather than band by band
+     */
+    public boolean isSequential() {
+        return sequentialType != null;
+    }
+
+    /**
+     * Computes how many rows of sub-images fit in a band without the decoded band taking
+     * more than a given amount of memory. Bands are only used when the image is not read
+     * sequentially, and then every band costs a decode of the rows above it, so the
+     * largest band the memory allows is the fastest.
+     * @param resolutionsPerRow the number of sub-images per row
+     * @param memoryBytes       the memory a decoded band may take
+     * @return the number of rows of sub-images per band, at least 1
+     */
+    public int rowsPerBand(int resolutionsPerRow, long memoryBytes) {
+        int tileSize = paddedWidth / resolutionsPerRow;
+        long bytesPerRow = (long) width * tileSize * BYTES_PER_PIXEL;
+        long rows = memoryBytes / Math.max(1, bytesPerRow);
+        return (int) Math.max(1, Math.min(subImageRows(resolutionsPerRow), rows));
+    }
+
+    /**
+     * Computes the brightness of every sub-image, from the top row to the bottom one, and
+     * hands the rows over as soon as they are known. The image is decoded in a single
+     * sequential pass when {@link #isSequential()}, and otherwise band by band.
+     * @param resolutionsPerRow the number of sub-images per row
+     * @param rowsPerBand       the number of rows of sub-images decoded at once when reading
+     *                          by bands; a sequential pass hands over one row at a time
+     * @param withColors        whether the average color of every sub-image is computed too
+     * @param consumer          receives the rows, in order
+     * @throws IOException if the image cannot be decoded, or the consumer fails
+     */
+    public void forEachBand(int resolutionsPerRow, int rowsPerBand, boolean withColors,
+                            BandConsumer consumer) throws IOException {
+        int rows = subImageRows(resolutionsPerRow);
+        if (sequentialType != null) {
+            new SequentialPass(resolutionsPerRow, withColors, consumer).run();
+            return;
+        }
+        double[][] brightness = new double[rowsPerBand][resolutionsPerRow];
+        int[][] colors = withColors ? new int[rowsPerBand][resolutionsPerRow] : null;
+        for (int firstRow = 0; firstRow < rows; firstRow += rowsPerBand) {
+            int endRow = Math.min(rows, firstRow + rowsPerBand);
+            readBrightness(resolutionsPerRow, firstRow, endRow, brightness, colors);
+            consumer.accept(firstRow, endRow, brightness, colors);
+        }
+    }
+
+    /**
+     * Computes the brightness of every sub-image in a band of rows.
+     * @param resolutionsPerRow the number of sub-images per row
+     * @param firstRow          the first row of sub-images in the band
+     * @param endRow            the row after the last row of the band
+     * @param brightness        receives the brightness of sub-image (row, col) at
+     *                          {@code brightness[row - firstRow][col]}
+     * @throws IOException if the band cannot be decoded
+     */
+    public void readBrightness(int resolutionsPerRow, int firstRow, int endRow,
+                               double[][] brightness) throws IOException {
+        readBrightness(resolutionsPerRow, firstRow, endRow, brightness, null);
+    }
+
+    /**
+     * Computes the brightness and the average color of every sub-image in a band of rows,
+     * in the same pass. The brightness is the same as without the colors.
+     * @param resolutionsPerRow the number of sub-images per row
+     * @param firstRow          the first row of sub-images in the band
+     * @param endRow            the row after the last row of the band
+     * @param brightness        receives the brightness of sub-image (row, col) at
+     *                          {@code brightness[row - firstRow][col]}
+     * @param colors            receives the average color of sub-image (row, col) as a
+     *                          packed RGB int at {@code colors[row - firstRow][col]}, or
+     *                          null when only the brightness is needed
+     * @throws IOException if the band cannot be decoded
+     * @see SubImage#calculateBrightnessAndColor(int[], int)
+     */
+    public void readBrightness(int resolutionsPerRow, int firstRow, int endRow,
+                               double[][] brightness, int[][] colors) throws IOException {
+        int tileSize = paddedWidth / resolutionsPerRow;
+        int rowsToPad = ImageProcessor.calculatePadSize(paddedHeight, height);
+        int columnsToPad = ImageProcessor.calculatePadSize(paddedWidth, width);
+
+        int bandTop = Math.max(0, firstRow * tileSize - rowsToPad);
+        int bandBottom = Math.min(height, endRow * tileSize - rowsToPad);
+        PixelDecoder band = null;
+        if (bandTop < bandBottom) {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, bandTop, width, bandBottom - bandTop));
+            band = new PixelDecoder(reader.read(0, param));
+        }
+
+        // the pixels of a row, or only their luminance when no color is asked for
+        int[] rowPixels = new int[width];
+        long[] sums = new long[resolutionsPerRow * (colors == null ? 1 : CHANNELS)];
+        for (int row = firstRow; row < endRow; row++) {
+            int top = Math.max(bandTop, row * tileSize - rowsToPad);
+            int bottom = Math.min(bandBottom, (row + 1) * tileSize - rowsToPad);
+            Arrays.fill(sums, 0);
+            for (int y = top; y < bottom; y++) {
+                addRow(band, y - bandTop, rowPixels, resolutionsPerRow, colors != null, sums);
+            }
+            finishRow(resolutionsPerRow, Math.max(0, bottom - top), sums,
+                    brightness[row - firstRow], colors == null ? null : colors[row - firstRow]);
+        }
+    }
+
+    /**
+     * Adds a row of pixels to the sums of the sub-images it crosses.
+     * @param sums the luminance sum of every sub-image, or its red, green and blue sums
+     *             when colors are read
+     */
+    private void addRow(PixelDecoder decoder, int y, int[] rowPixels, int resolutionsPerRow,
+                        boolean withColors, long[] sums) {
+        int tileSize = paddedWidth / resolutionsPerRow;
+        int columnsToPad = ImageProcessor.calculatePadSize(paddedWidth, width);
+        if (withColors) {
+            decoder.readRow(y, rowPixels, 0);
+        } else {
+            decoder.readLuminanceRow(y, rowPixels);
+        }
+        for (int col = 0; col < resolutionsPerRow; col++) {
+            int left = Math.max(0, col * tileSize - columnsToPad);
+            int right = Math.min(width, (col + 1) * tileSize - columnsToPad);
+            if (withColors) {
+                addComponents(rowPixels, left, right, sums, col * CHANNELS);
+            } else {
+                long sum = 0;
+                for (int x = left; x < right; x++) {
+                    sum += rowPixels[x];
+                }
+                sums[col] += sum;
+            }
+        }
+    }
+
+    /**
+     * Turns the sums of a row of sub-images into their brightness, and colors, adding the
+     * white padding they cover.
+     * @param coveredRows the number of rows of the image the sub-images cover
+     * @param colors      receives the average colors, or null when only the brightness is read
+     */
+    private void finishRow(int resolutionsPerRow, int coveredRows, long[] sums,
+                           double[] brightness, int[] colors) {
+        int tileSize = paddedWidth / resolutionsPerRow;
+        int columnsToPad = ImageProcessor.calculatePadSize(paddedWidth, width);
+        int numPixels = tileSize * tileSize;
+        for (int col = 0; col < resolutionsPerRow; col++) {
+            int left = Math.max(0, col * tileSize - columnsToPad);
+            int right = Math.min(width, (col + 1) * tileSize - columnsToPad);
+            long covered = (long) coveredRows * Math.max(0, right - left);
+            long white = (long) numPixels - covered;
+            if (colors == null) {
+                brightness[col] = SubImage.brightness(sums[col] + white * WHITE_LUMINANCE, numPixels);
+            } else {
+                int at = col * CHANNELS;
+                long red = sums[at] + white * WHITE_COMPONENT;
+                long green = sums[at + 1] + white * WHITE_COMPONENT;
+                long blue = sums[at + 2] + white * WHITE_COMPONENT;
+                colors[col] = SubImage.averageColor(red, green, blue, numPixels);
+                brightness[col] = SubImage.brightness(SubImage.luminance(red, green, blue), numPixels);
+            }
+        }
+    }
+
+    /**
+     * Adds the red, green and blue components of a run of pixels to three sums.
+     */
+    private static void addComponents(int[] pixels, int from, int to, long[] sums, int at) {
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        for (int x = from; x < to; x++) {
+            int rgb = pixels[x];
+            red += (rgb >> RED_SHIFT) & COMPONENT_MASK;
+            green += (rgb >> GREEN_SHIFT) & COMPONENT_MASK;
+            blue += rgb & COMPONENT_MASK;
+        }
+        sums[at] += red;
+        sums[at + 1] += green;
+        sums[at + 2] += blue;
+    }
+
+    /**
+     * One decode of the whole image, summed row by row while the decoder reports the rows.
+     * <p>
+     * The decoder writes into an image whose data buffer only keeps the last
+     * {@link #RING_ROWS} rows, and every row is read back through a view of that ring as
+     * soon as it is reported, so the memory used does not depend on the height of the
+     * image. An image too large for a single data buffer is decoded in a few segments of
+     * rows, each a read of its own.
+     */
+    private final class SequentialPass implements IIOReadUpdateListener {
+        private final int resolutionsPerRow;
+        private final boolean withColors;
+        private final BandConsumer consumer;
+        private final int tileSize;
+        private final int rowsToPad;
+        private final int rows;
+
+        private final int[] rowPixels = new int[width];
+        private final long[] sums;
+        private final double[][] brightness;
+        private final int[][] colors;
+
+        /** The ring the decoder writes into, and a view of it the rows are read from.*/
+        private final byte[] ring;
+        private final PixelDecoder ringRows;
+        private final int ringHeight;
+
+        /** The image row at the top of the current segment, and the next row expected.*/
+        private int segmentTop;
+        private int nextY;
+
+        /** The row of sub-images being summed.*/
+        private int currentRow;
+
+        private SequentialPass(int resolutionsPerRow, boolean withColors, BandConsumer consumer) {
+            this.resolutionsPerRow = resolutionsPerRow;
+            this.withColors = withColors;
+            this.consumer = consumer;
+            tileSize = paddedWidth / resolutionsPerRow;
+            rowsToPad = ImageProcessor.calculatePadSize(paddedHeight, height);
+            rows = subImageRows(resolutionsPerRow);
+            sums = new long[resolutionsPerRow * (withColors ? CHANNELS : 1)];
+            brightness = new double[1][resolutionsPerRow];
+            colors = withColors ? new int[1][resolutionsPerRow] : null;
+
+            ringHeight = Math.min(RING_ROWS, height);
+            SampleModel model = sequentialType.getSampleModel(width, ringHeight);
+            ring = new byte[((ComponentSampleModel) model).getScanlineStride() * ringHeight];
+            ColorModel colorModel = sequentialType.getColorModel();
+            ringRows = new PixelDecoder(new BufferedImage(colorModel,
+                    Raster.createWritableRaster(model, new DataBufferByte(ring, ring.length), null),
+                    colorModel.isAlphaPremultiplied(), null));
+        }
+
+        private void run() throws IOException {
+            int stride = ((ComponentSampleModel) sequentialType.getSampleModel(width, 1))
+                    .getScanlineStride();
+            int segmentHeight = Math.max(ringHeight, Integer.MAX_VALUE / stride / ringHeight * ringHeight);
+            ColorModel colorModel = sequentialType.getColorModel();
+            reader.addIIOReadUpdateListener(this);
+            try {
+                for (segmentTop = 0; segmentTop < height; segmentTop += segmentHeight) {
+                    int rowsInSegment = Math.min(segmentHeight, height - segmentTop);
+                    SampleModel model = sequentialType.getSampleModel(width, rowsInSegment);
+                    BufferedImage destination = new BufferedImage(colorModel,
+                            Raster.createWritableRaster(model,
+                                    new RingBuffer(stride * rowsInSegment, ring), null),
+                            colorModel.isAlphaPremultiplied(), null);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(new Rectangle(0, segmentTop, width, rowsInSegment));
+                    param.setDestination(destination);
+                    nextY = segmentTop;
+                    reader.read(0, param);
+                    if (nextY != segmentTop + rowsInSegment) {
+                        throw new IOException("The decoder skipped rows " + nextY + " and below");
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                reader.removeIIOReadUpdateListener(this);
+            }
+            // the rows of sub-images below the image, if any, are padding only
+            emitUpTo(rows);
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY,
+                                int updateWidth, int updateHeight, int periodX, int periodY,
+                                int[] bands) {
+            int first = segmentTop + minY;
+            if (first != nextY || periodY != 1 || updateHeight > ringHeight) {
+                throw new UncheckedIOException(new IOException(
+                        "The decoder reported row " + first + " out of order"));
+            }
+            try {
+                for (int y = first; y < first + updateHeight; y++) {
+                    emitUpTo((y + rowsToPad) / tileSize);
+                    addRow(ringRows, (y - segmentTop) % ringHeight, rowPixels, resolutionsPerRow,
+                            withColors, sums);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            nextY = first + updateHeight;
+        }
+
+        /**
+         * Finishes and hands over every row of sub-images above a row.
+         */
+        private void emitUpTo(int row) throws IOException {
+            for (; currentRow < row; currentRow++) {
+                int top = Math.max(0, currentRow * tileSize - rowsToPad);
+                int bottom = Math.min(height, (currentRow + 1) * tileSize - rowsToPad);
+                finishRow(resolutionsPerRow, Math.max(0, bottom - top), sums, brightness[0],
+                        colors == null ? null : colors[0]);
+                consumer.accept(currentRow, currentRow + 1, brightness, colors);
+                Arrays.fill(sums, 0);
+            }
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass,
+                                int maxPass, int minX, int minY, int periodX, int periodY,
+                                int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage image) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass,
+                                         int minPass, int maxPass, int minX, int minY,
+                                         int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX,
+                                    int minY, int updateWidth, int updateHeight, int periodX,
+                                    int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) {
+        }
+    }
+
+    /**
+     * A byte data buffer as large as a whole segment of rows that only stores the last
+     * rows written to it: element i is kept at i modulo the length of the ring, so every
+     * row lands on the ring row of its index modulo the ring height.
+     */
+    private static final class RingBuffer extends DataBuffer {
+        private final byte[] ring;
+
+        private RingBuffer(int size, byte[] ring) {
+            super(TYPE_BYTE, size);
+            this.ring = ring;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return ring[i % ring.length] & COMPONENT_MASK;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            ring[i % ring.length] = (byte) val;
+        }
+    }
+
+    /**
+     * Releases the decoder and the file.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
@@ -0,0 +1,263 @@
+package image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A mipmap of the luminance of an image padded to powers of two, from which the
+ * brightness grid of every resolution whose tiles are a power of two is read without
+ * touching a pixel.
+ * <p>
+ * Level k holds the luminance sum of every 2^k by 2^k tile of the padded image, in the
+ * fixed point units of {@link SubImage#luminance(int)}. Level 1 is summed from the pixels
+ * in a single pass, with the white padding accounted for arithmetically, and every
+ * further level sums 2x2 cells of the one below, so the whole pyramid costs O(pixels)
+ * once and then O(tiles) per resolution. Since a shell "res up" or "res down" doubles or
+ * halves the resolution, every resolution it can reach is a level of the pyramid.
+ * <p>
+ * A tile of up to 16x16 pixels sums to less than 2^31, so those levels are int arrays,
+ * larger tiles are summed into longs. Together the levels take about 4/3 of a byte per
+ * pixel of the padded image, between a sixth and two thirds of the memory of a
+ * {@link LuminanceIntegral}. The sums are exact, so the brightness values are the same
+ * as the ones of {@link SubImage#calculateBrightness()}.
+ * <p>
+ * Given a pool, every level is built in bands of rows on it, the same way the algorithm
+ * splits the sub images, so a parallel render does not wait for a single thread to read
+ * the pixels the first time.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see Image#brightnessPyramid()
+ */
+public final class BrightnessPyramid {
+    /** The largest tile side whose luminance sum fits in an int.*/
+    private static final int MAX_INT_TILE = 16;
+
+    /** The luminance of a white padding pixel.*/
+    private static final int WHITE_LUMINANCE = SubImage.luminance(Image.WHITE_ARGB);
+
+    /** Bands of rows per thread of the pool, so threads that finish early can take more.*/
+    private static final int BANDS_PER_WORKER = 4;
+
+    /** The width and height of the padded image.*/
+    private final int paddedWidth;
+    private final int paddedHeight;
+
+    /** intLevels[k] holds the sums of the 2^k tiles, for 1 <= k while 2^k <= 16.
+     * Entry 0 is null, single pixels are not kept.*/
+    private final int[][] intLevels;
+
+    /** longLevels[k] holds the sums of the 2^k tiles for the larger tiles, null below.*/
+    private final long[][] longLevels;
+
+    /** The number of levels, level k exists for 1 <= k < levels.*/
+    private final int levels;
+
+    /**
+     * Builds the pyramid of an image that owns its raster, padded the way
+     * {@link ImageProcessor#padToPowerOfTwo(Image)} pads it.
+     * @param image the image, not a padded view
+     * @param pool  the pool the levels are built on, null to build them on the calling
+     *              thread
+     */
+    BrightnessPyramid(Image image, ForkJoinPool pool) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        paddedWidth = ImageProcessor.getNewSize(width);
+        paddedHeight = ImageProcessor.getNewSize(height);
+        int maxLevel = Integer.numberOfTrailingZeros(Math.min(paddedWidth, paddedHeight));
+        levels = maxLevel + 1;
+        intLevels = new int[levels][];
+        longLevels = new long[levels][];
+        if (maxLevel == 0) {
+            return;
+        }
+        intLevels[1] = baseLevel(image, pool);
+        for (int level = 2; level < levels; level++) {
+            int columns = paddedWidth >> level;
+            int rows = paddedHeight >> level;
+            int below = level - 1;
+            if ((1 << level) <= MAX_INT_TILE) {
+                int[] sums = new int[columns * rows];
+                forEachBand(pool, rows, (firstRow, endRow) -> sumInts(intLevels[below], sums, columns,
+                        firstRow, endRow));
+                intLevels[level] = sums;
+            } else {
+                long[] sums = new long[columns * rows];
+                forEachBand(pool, rows, (firstRow, endRow) -> sumLongs(below, sums, columns,
+                        firstRow, endRow));
+                longLevels[level] = sums;
+            }
+        }
+    }
+
+    /**
+     * Sums the 2x2 tiles of the padded image. Every cell starts out as four white pixels
+     * and every pixel of the image replaces the white pixel it covers.
+     */
+    private int[] baseLevel(Image image, ForkJoinPool pool) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowsToPad = ImageProcessor.calculatePadSize(paddedHeight, height);
+        int columnsToPad = ImageProcessor.calculatePadSize(paddedWidth, width);
+        int columns = paddedWidth / 2;
+        int[] sums = new int[columns * (paddedHeight / 2)];
+        int[] raster = image.raster();
+        forEachBand(pool, paddedHeight / 2, (firstRow, endRow) -> {
+            Arrays.fill(sums, firstRow * columns, endRow * columns, 4 * WHITE_LUMINANCE);
+            // the image rows that fall in cell rows firstRow up to endRow
+            int top = Math.max(0, 2 * firstRow - rowsToPad);
+            int bottom = Math.min(height, 2 * endRow - rowsToPad);
+            for (int row = top; row < bottom; row++) {
+                int cellRow = ((row + rowsToPad) >> 1) * columns;
+                int pixel = row * width;
+                for (int col = 0; col < width; col++) {
+                    sums[cellRow + ((col + columnsToPad) >> 1)] +=
+                            SubImage.luminance(raster[pixel + col]) - WHITE_LUMINANCE;
+                }
+            }
+        });
+        return sums;
+    }
+
+    /**
+     * Sums 2x2 cells of an int level into rows firstRow up to endRow of the next level.
+     */
+    private static void sumInts(int[] below, int[] sums, int columns, int firstRow, int endRow) {
+        for (int row = firstRow; row < endRow; row++) {
+            int upper = 2 * row * 2 * columns;
+            int lower = upper + 2 * columns;
+            for (int col = 0; col < columns; col++) {
+                sums[row * columns + col] = below[upper + 2 * col] + below[upper + 2 * col + 1] +
+                        below[lower + 2 * col] + below[lower + 2 * col + 1];
+            }
+        }
+    }
+
+    /**
+     * Sums 2x2 cells of a level into rows firstRow up to endRow of the next, long, level.
+     */
+    private void sumLongs(int below, long[] sums, int columns, int firstRow, int endRow) {
+        for (int row = firstRow; row < endRow; row++) {
+            int upper = 2 * row * 2 * columns;
+            int lower = upper + 2 * columns;
+            for (int col = 0; col < columns; col++) {
+                sums[row * columns + col] = cell(below, upper + 2 * col) +
+                        cell(below, upper + 2 * col + 1) +
+                        cell(below, lower + 2 * col) + cell(below, lower + 2 * col + 1);
+            }
+        }
+    }
+
+    /**
+     * Runs an action over all rows of a level, either at once on the calling thread, or
+     * split into bands on the pool. Every row is given to exactly one call.
+     */
+    private static void forEachBand(ForkJoinPool pool, int rows, BandAction action) {
+        if (pool == null) {
+            action.run(0, rows);
+        } else {
+            int rowsPerBand = Math.max(1, rows / (pool.getParallelism() * BANDS_PER_WORKER));
+            pool.invoke(new BandTask(action, 0, rows, rowsPerBand));
+        }
+    }
+
+    private long cell(int level, int index) {
+        int[] small = intLevels[level];
+        return small != null ? small[index] : longLevels[level][index];
+    }
+
+    /**
+     * @param resolutionsPerRow the number of sub images per row
+     * @return whether the brightness grid of the resolution can be read from the pyramid,
+     *         that is whether its tiles are a power of two of at least 2x2 pixels
+     */
+    public boolean hasResolution(int resolutionsPerRow) {
+        if (resolutionsPerRow <= 0) {
+            return false;
+        }
+        int tileSize = paddedWidth / resolutionsPerRow;
+        int level = Integer.numberOfTrailingZeros(tileSize);
+        return tileSize > 1 && Integer.bitCount(tileSize) == 1 && level < levels;
+    }
+
+    /**
+     * Reads the brightness of every sub image at a resolution, like
+     * {@link ImageProcessor#forEachSubImage(Image, int, SubImageConsumer)} would tile the
+     * padded image.
+     * @param resolutionsPerRow the number of sub images per row
+     * @return the brightness of sub image (i, j) at [i][j], between 0 and 1
+     * @throws IllegalArgumentException if the pyramid does not have the resolution
+     * @see #hasResolution(int)
+     */
+    public double[][] brightnessGrid(int resolutionsPerRow) {
+        if (!hasResolution(resolutionsPerRow)) {
+            throw new IllegalArgumentException("No level for resolution " + resolutionsPerRow);
+        }
+        int tileSize = paddedWidth / resolutionsPerRow;
+        int level = Integer.numberOfTrailingZeros(tileSize);
+        int columns = paddedWidth >> level;
+        int rows = paddedHeight >> level;
+        int numPixels = tileSize * tileSize;
+        double[][] brightness = new double[rows][resolutionsPerRow];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < resolutionsPerRow; j++) {
+                brightness[i][j] = SubImage.brightness(cell(level, i * columns + j), numPixels);
+            }
+        }
+        return brightness;
+    }
+
+    /**
+     * @return the number of bytes held by the levels of the pyramid
+     */
+    public long memoryBytes() {
+        long bytes = 0;
+        for (int level = 1; level < levels; level++) {
+            if (intLevels[level] != null) {
+                bytes += (long) intLevels[level].length * Integer.BYTES;
+            } else {
+                bytes += (long) longLevels[level].length * Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Work done on a band of rows of a level, from firstRow up to (not including) endRow.
+     */
+    @FunctionalInterface
+    private interface BandAction {
+        void run(int firstRow, int endRow);
+    }
+
+    /**
+     * Splits a band of rows in half until it is small enough, then runs the action on it.
+     */
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient BandAction action;
+        private final int firstRow;
+        private final int endRow;
+        private final int rowsPerBand;
+
+        BandTask(BandAction action, int firstRow, int endRow, int rowsPerBand) {
+            this.action = action;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.rowsPerBand = rowsPerBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - firstRow <= rowsPerBand) {
+                action.run(firstRow, endRow);
+                return;
+            }
+            int middle = (firstRow + endRow) >>> 1;
+            invokeAll(new BandTask(action, firstRow, middle, rowsPerBand),
+                    new BandTask(action, middle, endRow, rowsPerBand));
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the frames of an animation one after the other, either from a multi-frame image
+ * file such as an animated GIF, or from a directory of numbered frame files.
+ * <p>
+ * The frames of a GIF are usually patches that are drawn over what the previous frames
+ * left, at an offset and with transparent pixels, and then disposed of in one of several
+ * ways. They are composed here onto a canvas of the size of the whole animation, which
+ * starts out white like the padding of an image, so every returned frame is a complete
+ * picture. The frames of a directory are ordered by the last number in their names
+ * ({@code frame2.png} before {@code frame10.png}) and must all have the same size.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+public class FrameSequenceReader implements Closeable {
+    /** The delay of frames that do not specify one, the common default of browsers.*/
+    public static final int DEFAULT_DELAY_MILLIS = 100;
+
+    private static final String GIF_STREAM_FORMAT = "javax_imageio_gif_stream_1.0";
+    private static final String GIF_IMAGE_FORMAT = "javax_imageio_gif_image_1.0";
+    private static final String SCREEN_DESCRIPTOR = "LogicalScreenDescriptor";
+    private static final String SCREEN_WIDTH = "logicalScreenWidth";
+    private static final String SCREEN_HEIGHT = "logicalScreenHeight";
+    private static final String IMAGE_DESCRIPTOR = "ImageDescriptor";
+    private static final String LEFT = "imageLeftPosition";
+    private static final String TOP = "imageTopPosition";
+    private static final String GRAPHIC_CONTROL = "GraphicControlExtension";
+    private static final String DELAY = "delayTime";
+    private static final String DISPOSAL = "disposalMethod";
+    private static final String RESTORE_TO_BACKGROUND = "restoreToBackgroundColor";
+    private static final String RESTORE_TO_PREVIOUS = "restoreToPrevious";
+
+    /** GIF delays are in hundredths of a second.*/
+    private static final int MILLIS_PER_GIF_DELAY = 10;
+
+    /** The last run of digits in a file name.*/
+    private static final Pattern FRAME_NUMBER = Pattern.compile("(\\d+)(?!.*\\d)");
+
+    /** The frame files of a directory in order, null when reading a single file.*/
+    private final List<Path> frameFiles;
+
+    /** The decoder of a multi-frame file, null when reading a directory.*/
+    private final ImageReader reader;
+    private final ImageInputStream input;
+
+    /** The number of frames of a multi-frame file.*/
+    private final int frameCount;
+
+    /** Whether the frames of the file are GIF patches that need composing.*/
+    private final boolean gif;
+
+    private final int width;
+    private final int height;
+
+    /** The animation so far, for GIF frames, white where nothing was drawn yet.*/
+    private BufferedImage canvas;
+
+    /** The canvas before the last frame, kept when that frame is to be undone.*/
+    private BufferedImage previous;
+
+    /** The area of the last frame and how to dispose of it before the next one.*/
+    private Rectangle lastArea;
+    private String lastDisposal;
+
+    private int nextFrame;
+    private int delayMillis = DEFAULT_DELAY_MILLIS;
+
+    /**
+     * Opens an animation and reads its size, without decoding any frame.
+     * @param path a multi-frame image file, or a directory of numbered frames
+     * @throws IOException if there are no frames or they cannot be read
+     */
+    public FrameSequenceReader(String path) throws IOException {
+        File file = new File(path);
+        if (file.isDirectory()) {
+            frameFiles = listFrames(file.toPath());
+            if (frameFiles.isEmpty()) {
+                throw new IOException("No numbered frames in " + path);
+            }
+            reader = null;
+            input = null;
+            frameCount = frameFiles.size();
+            gif = false;
+            BufferedImage first = ImageIO.read(frameFiles.get(0).toFile());
+            if (first == null) {
+                throw new IOException("Unsupported image format: " + frameFiles.get(0));
+            }
+            width = first.getWidth();
+            height = first.getHeight();
+            return;
+        }
+        frameFiles = null;
+        input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot open " + path);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + path);
+        }
+        reader = readers.next();
+        reader.setInput(input, false, false);
+        frameCount = reader.getNumImages(true);
+        IIOMetadata streamMetadata = reader.getStreamMetadata();
+        gif = streamMetadata != null &&
+                Arrays.asList(streamMetadata.getMetadataFormatNames()).contains(GIF_STREAM_FORMAT);
+        IIOMetadataNode screen = gif ?
+                child((IIOMetadataNode) streamMetadata.getAsTree(GIF_STREAM_FORMAT), SCREEN_DESCRIPTOR) :
+                null;
+        if (screen != null) {
+            width = Integer.parseInt(screen.getAttribute(SCREEN_WIDTH));
+            height = Integer.parseInt(screen.getAttribute(SCREEN_HEIGHT));
+        } else {
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        }
+    }
+
+    /**
+     * @return the width of every frame
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of every frame
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Decodes the next frame.
+     * @return the next frame, or null after the last one
+     * @throws IOException if the frame cannot be decoded
+     */
+    public Image nextFrame() throws IOException {
+        if (nextFrame >= frameCount) {
+            return null;
+        }
+        int index = nextFrame++;
+        delayMillis = DEFAULT_DELAY_MILLIS;
+        if (frameFiles != null) {
+            Path file = frameFiles.get(index);
+            BufferedImage frame = ImageIO.read(file.toFile());
+            if (frame == null) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            if (frame.getWidth() != width || frame.getHeight() != height) {
+                throw new IOException("Frame " + file + " is not " + width + "x" + height);
+            }
+            return new Image(frame);
+        }
+        BufferedImage frame = reader.read(index);
+        if (!gif) {
+            return new Image(frame);
+        }
+        return new Image(compose(frame, (IIOMetadataNode) reader.getImageMetadata(index)
+                .getAsTree(GIF_IMAGE_FORMAT)));
+    }
+
+    /**
+     * @return the time the last frame returned by {@link #nextFrame()} is shown for
+     */
+    public int getDelayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * Disposes of the previous GIF frame and draws the next one over the canvas.
+     * @return the canvas, which is copied by the caller before the next frame
+     */
+    private BufferedImage compose(BufferedImage frame, IIOMetadataNode metadata) {
+        if (canvas == null) {
+            canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            fill(canvas, new Rectangle(0, 0, width, height));
+        } else if (RESTORE_TO_BACKGROUND.equals(lastDisposal)) {
+            fill(canvas, lastArea);
+        } else if (RESTORE_TO_PREVIOUS.equals(lastDisposal) && previous != null) {
+            canvas.setData(previous.getRaster());
+        }
+
+        IIOMetadataNode descriptor = child(metadata, IMAGE_DESCRIPTOR);
+        int left = descriptor == null ? 0 : Integer.parseInt(descriptor.getAttribute(LEFT));
+        int top = descriptor == null ? 0 : Integer.parseInt(descriptor.getAttribute(TOP));
+        IIOMetadataNode control = child(metadata, GRAPHIC_CONTROL);
+        lastDisposal = control == null ? null : control.getAttribute(DISPOSAL);
+        if (control != null) {
+            int delay = Integer.parseInt(control.getAttribute(DELAY)) * MILLIS_PER_GIF_DELAY;
+            if (delay > 0) {
+                delayMillis = delay;
+            }
+        }
+        lastArea = new Rectangle(left, top, frame.getWidth(), frame.getHeight());
+        if (RESTORE_TO_PREVIOUS.equals(lastDisposal)) {
+            previous = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            previous.setData(canvas.getRaster());
+        }
+
+        Graphics2D graphics = canvas.createGraphics();
+        graphics.drawImage(frame, left, top, null);
+        graphics.dispose();
+        return canvas;
+    }
+
+    private static void fill(BufferedImage image, Rectangle area) {
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fill(area);
+        graphics.dispose();
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode node, String name) {
+        for (int i = 0; i < node.getLength(); i++) {
+            if (node.item(i).getNodeName().equals(name)) {
+                return (IIOMetadataNode) node.item(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the image files of a directory whose names hold a number, in frame order.
+     */
+    private static List<Path> listFrames(Path directory) throws IOException {
+        Set<String> suffixes = new HashSet<>(Arrays.asList(ImageIO.getReaderFileSuffixes()));
+        List<Path> frames = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+                if (Files.isRegularFile(file) && suffixes.contains(suffix) &&
+                        FRAME_NUMBER.matcher(name).find()) {
+                    frames.add(file);
+                }
+            }
+        }
+        frames.sort(Comparator.comparingLong(FrameSequenceReader::frameNumber)
+                .thenComparing(Path::toString));
+        return frames;
+    }
+
+    private static long frameNumber(Path file) {
+        Matcher matcher = FRAME_NUMBER.matcher(file.getFileName().toString());
+        matcher.find();
+        String digits = matcher.group(1);
+        // numbers too long for a long are compared by their names
+        return digits.length() < String.valueOf(Long.MAX_VALUE).length() ?
+                Long.parseLong(digits) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Releases the decoder and the file.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.dispose();
+            input.close();
+        }
+    }
+}
@@ -5,35 +5,121 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A package-private class of the package image.
+ * <p>
+ * The pixels are kept in a single packed ARGB raster (row-major), so an image
+ * costs one {@code int} per pixel instead of one {@link Color} object per pixel.
+ * <p>
+ * An image can also be a padded view of another image: it is larger than its source,
+ * which sits at an offset inside it, and every pixel outside the source is white. Such a
+ * view shares the raster of its source and stores no pixel of its own.
  * @author Dan Nirel
  */
 public class Image {
 
-    private final Color[][] pixelArray;
+    /** Packed ARGB value of an opaque white pixel.*/
+    static final int WHITE_ARGB = 0xFFFFFFFF;
+
+    /** The pixels of the image, row after row, one packed ARGB int per pixel.
+     * Null for a padded view.*/
+    private final int[] raster;
     private final int width;
     private final int height;
 
+    /** The image a padded view shows, null when this image owns its raster.*/
+    private final Image source;
+
+    /** Number of white rows above the source of a padded view.*/
+    private final int rowsToPad;
+
+    /** Number of white columns left of the source of a padded view.*/
+    private final int columnsToPad;
+
+    /** Multiplier that spreads the bits of the fingerprint, the 64 bit golden ratio.*/
+    private static final long FINGERPRINT_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** A hash of the dimensions and the pixels, computed the first time it is asked for.*/
+    private long fingerprint;
+
+    /** Whether fingerprint was computed already.*/
+    private boolean hasFingerprint;
+
+    /** Luminance summed-area table, built the first time a brightness is asked for.*/
+    private volatile LuminanceIntegral luminanceIntegral;
+
+    /** Luminance pyramid of the image padded to powers of two, built on first use.*/
+    private volatile BrightnessPyramid brightnessPyramid;
+
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
+        this(ImageIO.read(new File(filename)));
+    }
+
+    /**
+     * Constructs an image from an already decoded one, such as an uploaded file.
+     * The pixels are copied in bulk from the data buffer of the image when its layout
+     * allows it, see {@link PixelDecoder}.
+     * @param im the decoded image
+     */
+    public Image(BufferedImage im) {
         width = im.getWidth();
         height = im.getHeight();
+        source = null;
+        rowsToPad = 0;
+        columnsToPad = 0;
 
+        raster = new int[width * height];
+        new PixelDecoder(im).readAll(raster);
+    }
 
-        pixelArray = new Color[height][width];
+    public Image(Color[][] pixelArray, int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.source = null;
+        this.rowsToPad = 0;
+        this.columnsToPad = 0;
+        this.raster = new int[width * height];
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
-                pixelArray[i][j]=new Color(im.getRGB(j, i));
+                raster[i * width + j] = pixelArray[i][j].getRGB();
             }
         }
     }
 
-    public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+    /**
+     * Constructs an image directly over a packed ARGB raster. The array is used as is
+     * (not copied) and must hold {@code width * height} pixels, row after row.
+     * @param raster the packed ARGB pixels
+     * @param width  the number of pixels in a row
+     * @param height the number of rows
+     */
+    public Image(int[] raster, int width, int height) {
+        this.raster = raster;
+        this.width = width;
+        this.height = height;
+        this.source = null;
+        this.rowsToPad = 0;
+        this.columnsToPad = 0;
+    }
+
+    /**
+     * Constructs a padded view of an image: a larger image with the source placed at the
+     * given offset and white everywhere else. No pixel is copied or stored.
+     * @param source       the image that is padded
+     * @param width        the width of the padded image
+     * @param height       the height of the padded image
+     * @param rowsToPad    the number of white rows above the source
+     * @param columnsToPad the number of white columns left of the source
+     */
+    Image(Image source, int width, int height, int rowsToPad, int columnsToPad) {
+        this.raster = null;
         this.width = width;
         this.height = height;
+        this.source = source;
+        this.rowsToPad = rowsToPad;
+        this.columnsToPad = columnsToPad;
     }
 
     public int getWidth() {
@@ -44,18 +130,165 @@ public class Image {
         return height;
     }
 
+    /**
+     * Returns the pixel as a new {@link Color}. Kept for compatibility, prefer
+     * {@link #getRGB(int, int)} in loops since it does not allocate.
+     * @param x the row of the pixel
+     * @param y the column of the pixel
+     * @return the color of the pixel
+     */
     public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+        return new Color(getRGB(x, y));
+    }
+
+    /**
+     * Returns the packed ARGB value of a pixel.
+     * @param row the row of the pixel
+     * @param col the column of the pixel
+     * @return the pixel as a packed ARGB int
+     */
+    public int getRGB(int row, int col) {
+        if (source == null) {
+            return raster[row * width + col];
+        }
+        int sourceRow = row - rowsToPad;
+        int sourceCol = col - columnsToPad;
+        if (sourceRow < 0 || sourceRow >= source.height || sourceCol < 0 || sourceCol >= source.width) {
+            return WHITE_ARGB;
+        }
+        return source.getRGB(sourceRow, sourceCol);
+    }
+
+    /**
+     * Gives the classes of this package direct access to the packed raster.
+     * Pixel (row, col) is found at index {@code row * getWidth() + col}.
+     * Only images that own their raster have one, padded views return null.
+     * @return the raster itself, not a copy
+     */
+    int[] raster() {
+        return raster;
+    }
+
+    /**
+     * Returns the luminance sum (see {@link SubImage#luminance(int)}) of a square region.
+     * For a padded view, the part of the square that covers the source is read from the
+     * source's integral and every other pixel is counted as white, without being read.
+     * @param startRow the top row of the region
+     * @param startCol the left column of the region
+     * @param size     the side of the square region
+     * @return the sum of the luminance of all pixels in the region
+     */
+    long luminanceSum(int startRow, int startCol, int size) {
+        if (source == null) {
+            return luminanceIntegral().rectangleSum(startRow, startCol, startRow + size, startCol + size);
+        }
+        int top = Math.max(0, startRow - rowsToPad);
+        int left = Math.max(0, startCol - columnsToPad);
+        int bottom = Math.min(source.height, startRow + size - rowsToPad);
+        int right = Math.min(source.width, startCol + size - columnsToPad);
+        long sum = 0;
+        long covered = 0;
+        if (top < bottom && left < right) {
+            sum = source.luminanceIntegral().rectangleSum(top, left, bottom, right);
+            covered = (long) (bottom - top) * (right - left);
+        }
+        long white = (long) size * size - covered;
+        return sum + white * SubImage.luminance(WHITE_ARGB);
+    }
+
+    /**
+     * Returns the luminance summed-area table of this image, building it on first use.
+     * Later calls, e.g. when rendering again at another resolution, reuse the same table.
+     * Safe to call from several threads, the table is only built once.
+     * @return the luminance integral of this image
+     */
+    LuminanceIntegral luminanceIntegral() {
+        LuminanceIntegral integral = luminanceIntegral;
+        if (integral == null) {
+            synchronized (this) {
+                integral = luminanceIntegral;
+                if (integral == null) {
+                    integral = new LuminanceIntegral(this);
+                    luminanceIntegral = integral;
+                }
+            }
+        }
+        return integral;
+    }
+
+    /**
+     * Returns the brightness pyramid of this image padded to powers of two, building it on
+     * first use, so that changing the resolution back and forth reads no pixel again.
+     * Safe to call from several threads, the pyramid is only built once.
+     * A padded view returns the pyramid of its source.
+     * @return the brightness pyramid of the padded image
+     */
+    public BrightnessPyramid brightnessPyramid() {
+        return brightnessPyramid(null);
+    }
+
+    /**
+     * Like {@link #brightnessPyramid()}, but builds the pyramid in bands of rows on a pool
+     * if it does not exist yet.
+     * @param pool the pool to build on, null to build on the calling thread
+     * @return the brightness pyramid of the padded image
+     */
+    public BrightnessPyramid brightnessPyramid(ForkJoinPool pool) {
+        if (source != null) {
+            return source.brightnessPyramid(pool);
+        }
+        BrightnessPyramid pyramid = brightnessPyramid;
+        if (pyramid == null) {
+            synchronized (this) {
+                pyramid = brightnessPyramid;
+                if (pyramid == null) {
+                    pyramid = new BrightnessPyramid(this, pool);
+                    brightnessPyramid = pyramid;
+                }
+            }
+        }
+        return pyramid;
+    }
+
+    /**
+     * Returns a 64 bit hash of the dimensions and the pixels of the image. Two images with
+     * the same pixels have the same fingerprint, so it can key caches of results computed
+     * from the pixels. It is computed once, in a single pass over the pixels.
+     * @return the fingerprint of the image
+     */
+    public synchronized long fingerprint() {
+        if (!hasFingerprint) {
+            long hash = mix(width, height);
+            if (source == null) {
+                for (int pixel : raster) {
+                    hash = mix(hash, pixel);
+                }
+            } else {
+                hash = mix(mix(mix(hash, source.fingerprint()), rowsToPad), columnsToPad);
+            }
+            fingerprint = hash;
+            hasFingerprint = true;
+        }
+        return fingerprint;
+    }
+
+    private static long mix(long hash, long value) {
+        long mixed = (hash ^ value) * FINGERPRINT_MULTIPLIER;
+        return mixed ^ (mixed >>> Integer.SIZE);
     }
 
     public void saveImage(String fileName){
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        if (source == null) {
+            // The raster is already in the layout setRGB expects, so it is written in one call.
+            bufferedImage.setRGB(0, 0, width, height, raster, 0, width);
+        } else {
+            int[] row = new int[width];
+            for (int i = 0; i < height; i++) {
+                for (int j = 0; j < width; j++) {
+                    row[j] = getRGB(i, j);
+                }
+                bufferedImage.setRGB(0, i, width, 1, row, 0, width);
             }
         }
         File outputfile = new File(fileName+".jpeg");
@@ -66,4 +299,4 @@ public class Image {
         }
     }
 
-}
\ No newline at end of file
+}
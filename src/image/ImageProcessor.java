@@ -1,35 +1,56 @@
 package image;
 
-import java.awt.*;
-
 /**
  * A class that provides static image processing operations such as
  * padding an image to the nearest power-of-two dimensions and other future
  * manipulations like dividing an image into sub-images.
  * <p>
- * This class is stateless and designed to work only with static methods.
+ * The only state this class keeps is the last image it padded, so rendering the same
+ * image again (e.g. after a resolution change) reuses the padded image together with the
+ * brightness data already computed for it.
  * It operates on the {@link Image} class and serves as a helper for image-related tasks
  * needed in the ASCII art conversion pipeline.
  *
  */
 public class ImageProcessor {
 
-    /** The largest number a component of RGB greyscale can have.*/
-    private static final int MAX_RGB = 255;
-
     /** Used in nextPowerOfTwo and calculate padSize.*/
     private static final int TWO_MULT = 2;
 
+    /** The image that was last given to padToPowerOfTwo.*/
+    private Image lastSource;
+
+    /** The result of padding lastSource.*/
+    private Image lastPadded;
+
     /**
      * Pads an image with white pixels so that its width and/or height
      * become the next power of two (only if they are not already).
      * Padding is added symmetrically on both sides of each axis.
+     * <p>
+     * The padding is virtual: the result is a view that shares the pixels of the original
+     * image and reports white outside of it, nothing is allocated or copied.
      *
      * @param image the original image to be padded
-     * @return a new Image instance with padded dimensions,
+     * @return a padded view of the image with padded dimensions,
+     *         or the original image if no padding was needed.
+     *         Padding the same image twice in a row returns the same instance.
+     */
+    public synchronized Image padToPowerOfTwo(Image image){
+        if (image != lastSource) {
+            lastPadded = createPaddedImage(image);
+            lastSource = image;
+        }
+        return lastPadded;
+    }
+
+    /**
+     * Builds the padded view of an image, see {@link #padToPowerOfTwo(Image)}.
+     * @param image the original image to be padded
+     * @return a padded view of the image,
      *         or the original image if no padding was needed
      */
-    public Image padToPowerOfTwo(Image image){
+    private static Image createPaddedImage(Image image){
         int oldWidth = image.getWidth();
         int oldHeight = image.getHeight();
         int newWidth, newHeight;
@@ -41,19 +62,10 @@ public class ImageProcessor {
         if (oldWidth == newWidth && oldHeight == newHeight)
             return image;
 
-        Color[][] newPixels = new Color[newHeight][newWidth];
-
-        createWhiteBackground(newHeight, newWidth, newPixels);
-
         rowsToPad = calculatePadSize(newHeight, oldHeight);
         columnsToPad = calculatePadSize(newWidth, oldWidth);
 
-        for (int i = 0; i < oldHeight; i++) {
-            for (int j = 0; j < oldWidth; j++) {
-                newPixels[i + rowsToPad][j + columnsToPad] = image.getPixel(i, j);
-            }
-        }
-        return new Image(newPixels, newWidth, newHeight);
+        return new Image(image, newWidth, newHeight, rowsToPad, columnsToPad);
     }
 
     /**
@@ -67,7 +79,7 @@ public class ImageProcessor {
      * @param oldSize the original dimension of the image
      * @return the number of pixels to pad on each side (left/right or top/bottom)
      */
-    private static int calculatePadSize(int newSize, int oldSize) {
+    static int calculatePadSize(int newSize, int oldSize) {
         int sizeToPad;
         if(newSize != oldSize){
             sizeToPad = (newSize - oldSize) / TWO_MULT;
@@ -77,25 +89,6 @@ public class ImageProcessor {
         return sizeToPad;
     }
 
-    /**
-     * Fills the given 2D pixel array with white color (RGB: 255, 255, 255)
-     * to serve as the background for a newly padded image.
-     * <p>
-     * This method assumes that the array {@code newPixels} has already been
-     * allocated with dimensions {@code newHeight} × {@code newWidth}.
-     *
-     * @param newHeight the height of the image (number of rows)
-     * @param newWidth  the width of the image (number of columns)
-     * @param newPixels the pixel array to be filled with white color
-     */
-    private static void createWhiteBackground(int newHeight, int newWidth, Color[][] newPixels) {
-        for (int i = 0; i < newHeight; i++) {
-            for (int j = 0; j < newWidth; j++) {
-                newPixels[i][j] = new Color(MAX_RGB, MAX_RGB, MAX_RGB);
-            }
-        }
-    }
-
     /**
      * Returns the adjusted dimension size such that it becomes a power of two.
      * <p>
@@ -105,7 +98,7 @@ public class ImageProcessor {
      * @param oldSize the original dimension (width or height)
      * @return the new dimension that is a power of two and greater than or equal to {@code oldSize}
      */
-    private static int getNewSize(int oldSize) {
+    static int getNewSize(int oldSize) {
         int newSize;
         if(isPowerOfTwo(oldSize)){
             newSize = oldSize;
@@ -148,7 +141,8 @@ public class ImageProcessor {
 
 
     /**
-     * Will turn the original image into a 2d array of sub-images
+     * Will turn the original image into a 2d array of sub-images.
+     * The sub-images are views of the image and do not copy any pixel.
      * @param image              the original image that we will be dividing
      * @param resolutionsPerRow  the number of sub-images per row
      * @return                   a 2d array of all the sub-images
@@ -165,16 +159,62 @@ public class ImageProcessor {
             for(int column = 0; column < resolutionsPerRow; column++){
                 int startX = row * sizeOfMatrix;
                 int startY = column * sizeOfMatrix; // change X and Y
-                SubImage curr = fillSubImage(startX, startY, sizeOfMatrix, image);
-                resolutionImage[row][column] = curr;
+                resolutionImage[row][column] = fillSubImage(startX, startY, sizeOfMatrix, image);
             }
         }
         return resolutionImage;
     }
 
+    /**
+     * Passes every sub-image of the image to the consumer, row after row, without
+     * building a grid of sub-images. A single view is moved across the image, so
+     * no object is allocated per sub-image.
+     * @param image             the original image that we will be dividing
+     * @param resolutionsPerRow the number of sub-images per row
+     * @param consumer          receives each sub-image along with its place in the grid
+     */
+    public void forEachSubImage(Image image, int resolutionsPerRow, SubImageConsumer consumer){
+        forEachSubImage(image, resolutionsPerRow, 0, subImageRows(image, resolutionsPerRow), consumer);
+    }
+
+    /**
+     * Like {@link #forEachSubImage(Image, int, SubImageConsumer)}, but only goes over a band
+     * of rows of the grid. Bands that do not overlap may be walked from different threads
+     * at the same time, each one uses its own view.
+     * @param image             the original image that we will be dividing
+     * @param resolutionsPerRow the number of sub-images per row
+     * @param firstRow          the first row of the band in the grid of sub-images
+     * @param endRow            the row after the last row of the band
+     * @param consumer          receives each sub-image along with its place in the grid
+     */
+    public void forEachSubImage(Image image, int resolutionsPerRow, int firstRow, int endRow,
+                                SubImageConsumer consumer){
+        int sizeOfMatrix = image.getWidth() / resolutionsPerRow;
+        SubImage flyweight = new SubImage(image, 0, 0, sizeOfMatrix);
+
+        for(int row = firstRow; row < endRow; row++){
+            for(int column = 0; column < resolutionsPerRow; column++){
+                flyweight.moveTo(row * sizeOfMatrix, column * sizeOfMatrix);
+                consumer.accept(row, column, flyweight);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows in the grid of sub-images of an image.
+     * @param image             the (padded) image that is divided
+     * @param resolutionsPerRow the number of sub-images per row
+     * @return the number of sub-images per column
+     */
+    public int subImageRows(Image image, int resolutionsPerRow){
+        int sizeOfMatrix = image.getWidth() / resolutionsPerRow;
+        return image.getHeight() / sizeOfMatrix;
+    }
+
     /**
      * Creates a sub-image of the original image. The method will receive a row and a column which will
-     * represent the top left corner of the sub-image, and will create a square sub-image using size
+     * represent the top left corner of the sub-image, and will create a square sub-image using size.
+     * The sub-image is a view that reads the pixels of the original image in place.
      * @param startRow  the row on the original image
      * @param startCol  the pixel on the original image
      * @param size      the size of the square that will represent the sub-image
@@ -184,17 +224,6 @@ public class ImageProcessor {
      * @author          Maoz Bar Shimon
      */
     public SubImage fillSubImage(int startRow, int startCol, int size, Image image){
-        Color[][] subImage = new Color[size][size];
-        for(int i = 0; i < size; i++){
-            for(int j = 0; j < size; j++){
-                subImage[i][j] = image.getPixel(i + startRow, j + startCol);
-            }
-        }
-        return new SubImage(subImage);
+        return new SubImage(image, startRow, startCol, size);
     }
 }
-
-
-
-
-
@@ -0,0 +1,61 @@
+package image;
+
+/**
+ * A summed-area table (integral image) of the luminance of an {@link Image}.
+ * <p>
+ * Cell (r, c) of the table holds the sum of the luminance of every pixel above and to
+ * the left of pixel (r, c). Only images that own their raster get a table, padded views
+ * read the table of their source. It is built once, in a single pass over the raster, after
+ * which the luminance sum of any rectangle - and with it the brightness of any
+ * sub-image, at any resolution - costs four lookups.
+ * <p>
+ * Luminance is kept in the fixed point units of {@link SubImage#luminance(int)}, so the
+ * sums are exact integers and a tile gets the same brightness whether it is read from
+ * this table or by walking its pixels.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see SubImage
+ */
+class LuminanceIntegral {
+    /** Number of columns in the table, one more than the width of the image.*/
+    private final int stride;
+
+    /** The summed-area table, row after row, with a leading row and column of zeros.*/
+    private final long[] sums;
+
+    /**
+     * Builds the summed-area table of the given image.
+     * @param image the image whose luminance is summed
+     */
+    LuminanceIntegral(Image image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] raster = image.raster();
+        this.stride = width + 1;
+        this.sums = new long[stride * (height + 1)];
+        for (int row = 0; row < height; row++) {
+            long rowSum = 0;
+            int pixelOffset = row * width;
+            int above = row * stride + 1;
+            int current = above + stride;
+            for (int col = 0; col < width; col++) {
+                rowSum += SubImage.luminance(raster[pixelOffset + col]);
+                sums[current + col] = sums[above + col] + rowSum;
+            }
+        }
+    }
+
+    /**
+     * Returns the luminance sum of a rectangular region of the image.
+     * @param top    the top row of the region
+     * @param left   the left column of the region
+     * @param bottom the row below the region
+     * @param right  the column right of the region
+     * @return the sum of the luminance of all pixels in the region
+     */
+    long rectangleSum(int top, int left, int bottom, int right) {
+        int upper = top * stride;
+        int lower = bottom * stride;
+        return sums[lower + right] - sums[lower + left] - sums[upper + right] + sums[upper + left];
+    }
+}
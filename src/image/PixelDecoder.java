@@ -0,0 +1,227 @@
+package image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Reads the rows of a decoded {@link BufferedImage} straight from its data buffer.
+ * <p>
+ * {@link BufferedImage#getRGB(int, int)} converts every pixel through the color model of
+ * the image, one call per pixel. For the layouts image decoders usually produce - packed
+ * ints ({@code TYPE_INT_RGB}, {@code TYPE_INT_ARGB}), interleaved bytes
+ * ({@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR}) and grey bytes
+ * ({@code TYPE_BYTE_GRAY}) - the components are read from the backing array instead.
+ * Grey levels go through a table of the 256 values {@code getRGB} gives them, since the
+ * grey color space is not linear. Any other layout falls back to the bulk
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}. Either way the pixels
+ * are the same as {@code getRGB(x, y) | 0xFF000000}.
+ * <p>
+ * When only the brightness is needed, a row can be read as the luminance of its pixels
+ * (see {@link SubImage#luminance(int)}), without packing them first.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see Image#Image(BufferedImage)
+ * @see BandedImageReader
+ */
+final class PixelDecoder {
+    /** Alpha mask that makes a packed RGB value opaque.*/
+    private static final int OPAQUE_ALPHA = 0xFF000000;
+
+    private static final int COMPONENT_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+
+    /** Number of grey levels of a byte.*/
+    private static final int GREY_LEVELS = 256;
+
+    /** The layouts that are read from the data buffer, and the fallback.*/
+    private enum Layout { PACKED_INT, INTERLEAVED_BYTE, GREY_BYTE, GENERIC }
+
+    private final BufferedImage image;
+    private final int width;
+    private final Layout layout;
+
+    /** The backing array of a packed int layout, null otherwise.*/
+    private final int[] ints;
+
+    /** The backing array of a byte layout, null otherwise.*/
+    private final byte[] bytes;
+
+    /** Index of the first sample of pixel (0, 0) in the backing array.*/
+    private final int origin;
+    private final int scanlineStride;
+    private final int pixelStride;
+
+    /** Offsets of the red, green and blue samples from the first sample of a pixel.*/
+    private final int redOffset;
+    private final int greenOffset;
+    private final int blueOffset;
+
+    /** The opaque packed pixel of every grey level, null unless the layout is grey.*/
+    private final int[] greyPixels;
+
+    /**
+     * Inspects the layout of an image. Nothing is read yet.
+     * @param image the decoded image
+     */
+    PixelDecoder(BufferedImage image) {
+        this.image = image;
+        this.width = image.getWidth();
+        WritableRaster raster = image.getRaster();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+
+        Layout kind = Layout.GENERIC;
+        int[] intData = null;
+        byte[] byteData = null;
+        int stride = 0;
+        int step = 1;
+        int[] offsets = {0, 0, 0};
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                if (model instanceof SinglePixelPackedSampleModel && buffer instanceof DataBufferInt
+                        && buffer.getNumBanks() == 1) {
+                    kind = Layout.PACKED_INT;
+                    intData = ((DataBufferInt) buffer).getData();
+                    stride = ((SinglePixelPackedSampleModel) model).getScanlineStride();
+                }
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                if (model instanceof ComponentSampleModel && buffer instanceof DataBufferByte
+                        && buffer.getNumBanks() == 1) {
+                    ComponentSampleModel components = (ComponentSampleModel) model;
+                    kind = image.getType() == BufferedImage.TYPE_BYTE_GRAY ?
+                            Layout.GREY_BYTE : Layout.INTERLEAVED_BYTE;
+                    byteData = ((DataBufferByte) buffer).getData();
+                    stride = components.getScanlineStride();
+                    step = components.getPixelStride();
+                    offsets = components.getBandOffsets();
+                }
+                break;
+            default:
+                break;
+        }
+        this.layout = kind;
+        this.ints = intData;
+        this.bytes = byteData;
+        this.scanlineStride = stride;
+        this.pixelStride = step;
+        this.origin = buffer.getOffset() - translateY * stride - translateX * step;
+        this.redOffset = offsets[0];
+        this.greenOffset = kind == Layout.INTERLEAVED_BYTE ? offsets[1] : 0;
+        this.blueOffset = kind == Layout.INTERLEAVED_BYTE ? offsets[2] : 0;
+        this.greyPixels = kind == Layout.GREY_BYTE ? greyPixels(image) : null;
+    }
+
+    /**
+     * Reads a row of opaque packed ARGB pixels.
+     * @param y      the row
+     * @param pixels receives the pixels of the row
+     * @param offset the index of the first pixel of the row in pixels
+     */
+    void readRow(int y, int[] pixels, int offset) {
+        int start = origin + y * scanlineStride;
+        switch (layout) {
+            case PACKED_INT:
+                for (int x = 0; x < width; x++) {
+                    pixels[offset + x] = ints[start + x] | OPAQUE_ALPHA;
+                }
+                break;
+            case INTERLEAVED_BYTE:
+                for (int x = 0, at = start; x < width; x++, at += pixelStride) {
+                    pixels[offset + x] = OPAQUE_ALPHA |
+                            (bytes[at + redOffset] & COMPONENT_MASK) << RED_SHIFT |
+                            (bytes[at + greenOffset] & COMPONENT_MASK) << GREEN_SHIFT |
+                            (bytes[at + blueOffset] & COMPONENT_MASK);
+                }
+                break;
+            case GREY_BYTE:
+                for (int x = 0, at = start + redOffset; x < width; x++, at += pixelStride) {
+                    pixels[offset + x] = greyPixels[bytes[at] & COMPONENT_MASK];
+                }
+                break;
+            default:
+                image.getRGB(0, y, width, 1, pixels, offset, width);
+                for (int x = 0; x < width; x++) {
+                    pixels[offset + x] |= OPAQUE_ALPHA;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reads the luminance of every pixel of a row, see {@link SubImage#luminance(int)}.
+     * @param y         the row
+     * @param luminance receives the luminance of the pixels of the row, from index 0
+     */
+    void readLuminanceRow(int y, int[] luminance) {
+        int start = origin + y * scanlineStride;
+        switch (layout) {
+            case INTERLEAVED_BYTE:
+                for (int x = 0, at = start; x < width; x++, at += pixelStride) {
+                    luminance[x] = (bytes[at + redOffset] & COMPONENT_MASK) * SubImage.RED_WEIGHT +
+                            (bytes[at + greenOffset] & COMPONENT_MASK) * SubImage.GREEN_WEIGHT +
+                            (bytes[at + blueOffset] & COMPONENT_MASK) * SubImage.BLUE_WEIGHT;
+                }
+                break;
+            case GREY_BYTE:
+                for (int x = 0, at = start + redOffset; x < width; x++, at += pixelStride) {
+                    luminance[x] = SubImage.luminance(greyPixels[bytes[at] & COMPONENT_MASK]);
+                }
+                break;
+            default:
+                readRow(y, luminance, 0);
+                for (int x = 0; x < width; x++) {
+                    luminance[x] = SubImage.luminance(luminance[x]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reads the whole image into a raster of opaque packed ARGB pixels, row after row.
+     * @param pixels receives the pixels, it must hold width * height of them
+     */
+    void readAll(int[] pixels) {
+        int height = image.getHeight();
+        if (layout == Layout.GENERIC) {
+            image.getRGB(0, 0, width, height, pixels, 0, width);
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] |= OPAQUE_ALPHA;
+            }
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            readRow(y, pixels, y * width);
+        }
+    }
+
+    /**
+     * Converts every grey level the way getRGB does, by reading it back from an image of
+     * the same color model.
+     */
+    private static int[] greyPixels(BufferedImage image) {
+        WritableRaster levels = image.getColorModel().createCompatibleWritableRaster(GREY_LEVELS, 1);
+        for (int level = 0; level < GREY_LEVELS; level++) {
+            levels.setSample(level, 0, 0, level);
+        }
+        BufferedImage converter = new BufferedImage(image.getColorModel(), levels,
+                image.isAlphaPremultiplied(), null);
+        int[] pixels = converter.getRGB(0, 0, GREY_LEVELS, 1, null, 0, GREY_LEVELS);
+        for (int level = 0; level < GREY_LEVELS; level++) {
+            pixels[level] |= OPAQUE_ALPHA;
+        }
+        return pixels;
+    }
+}
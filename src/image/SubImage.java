@@ -14,17 +14,38 @@ public class SubImage {
     /** Represents the largest number a RGB unit can have.*/
     public static final double MAX_RGB = 255.0;
 
-    /** multiplier for the red component of the greyscale to get the brightness.*/
-    private static final double RED_MULTIPLIER = 0.2126;
+    /** Fixed point weight (x10000) of the red component of the greyscale.*/
+    static final int RED_WEIGHT = 2126;
 
-    /** multiplier for the green component of the greyscale to get the brightness.*/
-    private static final double GREEN_MULTIPLIER = 0.7152;
+    /** Fixed point weight (x10000) of the green component of the greyscale.*/
+    static final int GREEN_WEIGHT = 7152;
 
-    /** multiplier for the blue component of the greyscale to get the brightness.*/
-    private static final double BLUE_MULTIPLIER = 0.0722;
+    /** Fixed point weight (x10000) of the blue component of the greyscale.*/
+    static final int BLUE_WEIGHT = 722;
 
-    /** 2d array of color objects representing the sub image.*/
-    private final Color[][] pixels;
+    /** The scale of the fixed point weights, they sum up to it.*/
+    static final double WEIGHT_SCALE = 10000.0;
+
+    /** Mask of a single 8 bit color component in a packed RGB int.*/
+    private static final int COMPONENT_MASK = 0xFF;
+
+    /** Shift of the red component in a packed RGB int.*/
+    private static final int RED_SHIFT = 16;
+
+    /** Shift of the green component in a packed RGB int.*/
+    private static final int GREEN_SHIFT = 8;
+
+    /** The image this sub-image is a view of.*/
+    private final Image parent;
+
+    /** Top row of the sub-image in the parent image.*/
+    private int startRow;
+
+    /** Left column of the sub-image in the parent image.*/
+    private int startCol;
+
+    /** The side of the square sub-image.*/
+    private final int size;
 
 
     /**
@@ -34,7 +55,51 @@ public class SubImage {
      * @author Maoz Bar Shimon
      */
     public SubImage(Color[][] pixels) {
-        this.pixels = pixels;
+        this(new Image(pixels, pixels.length, pixels.length), 0, 0, pixels.length);
+    }
+
+    /**
+     * Constructs a SubImage that is a view of a square region of its parent image.
+     * No pixel is copied, they are read in place from the parent's raster.
+     * @param parent   the image the sub-image is part of
+     * @param startRow the top row of the sub-image in the parent
+     * @param startCol the left column of the sub-image in the parent
+     * @param size     the side of the square sub-image
+     */
+    public SubImage(Image parent, int startRow, int startCol, int size) {
+        this.parent = parent;
+        this.startRow = startRow;
+        this.startCol = startCol;
+        this.size = size;
+    }
+
+    /**
+     * Moves this view to another region of the same size in the parent image.
+     * Used to run a single instance over all tiles as a flyweight.
+     * @param startRow the new top row of the sub-image in the parent
+     * @param startCol the new left column of the sub-image in the parent
+     */
+    void moveTo(int startRow, int startCol) {
+        this.startRow = startRow;
+        this.startCol = startCol;
+    }
+
+    /**
+     * @return the side of the square sub-image
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the packed ARGB value of a pixel of the sub-image, read in place from the
+     * parent image.
+     * @param row the row of the pixel, relative to the sub-image
+     * @param col the column of the pixel, relative to the sub-image
+     * @return the pixel as a packed ARGB int
+     */
+    public int getRGB(int row, int col) {
+        return parent.getRGB(startRow + row, startCol + col);
     }
 
 
@@ -44,22 +109,95 @@ public class SubImage {
      * The grayscale value of each pixel is calculated using the formula:
      * {@code grey = 0.2126*R + 0.7152*G + 0.0722*B},
      * then the result is averaged over all pixels and normalized to the range [0, 1].
+     * <p>
+     * The sum is read from the luminance integral of the parent image, so this takes
+     * constant time, whatever the size of the sub-image.
      * @return the average grayscale brightness of the sub-image
      * @author Ishay Shaul
      * @author Maoz Bar Shimon
      */
     public double calculateBrightness() {
-        double result = 0;
-        int numPixels = pixels.length * pixels[0].length;
-        for(Color[] pixel : pixels) {
-            for(Color color : pixel) {
-                double grey = color.getRed() * RED_MULTIPLIER +
-                        color.getGreen() * GREEN_MULTIPLIER +
-                        color.getBlue() * BLUE_MULTIPLIER;
-                result += grey;
+        long luminanceSum = parent.luminanceSum(startRow, startCol, size);
+        return brightness(luminanceSum, size * size);
+    }
+
+    /**
+     * Calculates the brightness of this sub-image along with its average color, in a
+     * single pass over its pixels.
+     * <p>
+     * The red, green and blue components are summed separately, and since the greyscale
+     * is a weighted sum of them, the brightness computed from the three sums is exactly
+     * the one {@link #calculateBrightness()} returns.
+     * @param colors receives the average color as a packed RGB int, rounded per component
+     * @param index  the index in colors the average color is stored at
+     * @return the average grayscale brightness of the sub-image
+     */
+    public double calculateBrightnessAndColor(int[] colors, int index) {
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        int[] raster = parent.raster();
+        int width = parent.getWidth();
+        for (int row = startRow; row < startRow + size; row++) {
+            for (int col = startCol; col < startCol + size; col++) {
+                int rgb = raster != null ? raster[row * width + col] : parent.getRGB(row, col);
+                red += (rgb >> RED_SHIFT) & COMPONENT_MASK;
+                green += (rgb >> GREEN_SHIFT) & COMPONENT_MASK;
+                blue += rgb & COMPONENT_MASK;
             }
         }
-        result /= numPixels;
-        return result / MAX_RGB;
+        int numPixels = size * size;
+        colors[index] = averageColor(red, green, blue, numPixels);
+        return brightness(luminance(red, green, blue), numPixels);
+    }
+
+    /**
+     * Returns the greyscale value of a packed RGB pixel in fixed point units, i.e.
+     * {@code 10000 * (0.2126*R + 0.7152*G + 0.0722*B)}. Keeping it an integer lets
+     * tiles be summed exactly, in any order.
+     * @param rgb the packed pixel
+     * @return the fixed point greyscale value of the pixel
+     */
+    static int luminance(int rgb) {
+        return ((rgb >> RED_SHIFT) & COMPONENT_MASK) * RED_WEIGHT +
+                ((rgb >> GREEN_SHIFT) & COMPONENT_MASK) * GREEN_WEIGHT +
+                (rgb & COMPONENT_MASK) * BLUE_WEIGHT;
+    }
+
+    /**
+     * Returns the fixed point greyscale sum of pixels from the sums of their components,
+     * which equals the sum of {@link #luminance(int)} over the same pixels.
+     * @param red   the sum of the red components
+     * @param green the sum of the green components
+     * @param blue  the sum of the blue components
+     * @return the fixed point greyscale sum
+     */
+    static long luminance(long red, long green, long blue) {
+        return red * RED_WEIGHT + green * GREEN_WEIGHT + blue * BLUE_WEIGHT;
+    }
+
+    /**
+     * Packs the rounded averages of summed color components into an RGB int.
+     * @param red       the sum of the red components
+     * @param green     the sum of the green components
+     * @param blue      the sum of the blue components
+     * @param numPixels the number of pixels that were summed
+     * @return the average color as a packed RGB int
+     */
+    static int averageColor(long red, long green, long blue, int numPixels) {
+        long half = numPixels / 2;
+        return (int) ((red + half) / numPixels) << RED_SHIFT |
+                (int) ((green + half) / numPixels) << GREEN_SHIFT |
+                (int) ((blue + half) / numPixels);
+    }
+
+    /**
+     * Turns a fixed point luminance sum into a brightness in the range [0, 1].
+     * @param luminanceSum the sum of {@link #luminance(int)} over the pixels
+     * @param numPixels    the number of pixels that were summed
+     * @return the average brightness of the pixels
+     */
+    static double brightness(long luminanceSum, int numPixels) {
+        return luminanceSum / (numPixels * WEIGHT_SCALE * MAX_RGB);
     }
 }
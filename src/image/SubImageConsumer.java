@@ -0,0 +1,21 @@
+package image;
+
+/**
+ * A callback that receives the sub-images of an image one after the other,
+ * see {@link ImageProcessor#forEachSubImage(Image, int, SubImageConsumer)}.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+@FunctionalInterface
+public interface SubImageConsumer {
+    /**
+     * Receives a single sub-image.
+     * <p>
+     * The same {@link SubImage} instance may be moved to the next tile once this method
+     * returns, so it must not be kept beyond the call.
+     * @param row      the row of the sub-image in the grid of sub-images
+     * @param col      the column of the sub-image in the grid of sub-images
+     * @param subImage the sub-image itself
+     */
+    void accept(int row, int col, SubImage subImage);
+}
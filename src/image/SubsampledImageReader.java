@@ -0,0 +1,131 @@
+package image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Decodes an image with only as many pixels as a render at a given resolution can use.
+ * <p>
+ * A render at a low resolution averages large tiles, so most of the pixels of a big photo
+ * only ever add to a sum. With {@link ImageReadParam#setSourceSubsampling} the decoder
+ * keeps every n-th pixel of every n-th row, and the decoded image is about n squared
+ * times smaller and faster to build. The factor n is a power of two, so the subsampled
+ * image pads to the same powers of two divided by n and is cut into the same grid of
+ * tiles. It is picked from the tile size so that every tile still holds at least a given
+ * number of sampled pixels per side: the brightness of a tile is then the average of at
+ * least that number squared evenly spread pixels, rather than of all of them.
+ * <p>
+ * The dimensions of the image are read before any pixel is decoded, so the resolution
+ * can be validated against the full image first.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see BandedImageReader
+ */
+public class SubsampledImageReader implements Closeable {
+    /** The factor that decodes every pixel.*/
+    public static final int NO_SUBSAMPLING = 1;
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+
+    /**
+     * Opens an image file and reads its dimensions, without decoding any pixel.
+     * @param filename the path to the image
+     * @throws IOException if the file cannot be opened or is not a known image format
+     */
+    public SubsampledImageReader(String filename) throws IOException {
+        this(ImageIO.createImageInputStream(new File(filename)), filename);
+    }
+
+    /**
+     * Opens an image held in a stream, such as an upload, and reads its dimensions.
+     * @param stream the encoded image
+     * @throws IOException if the stream cannot be read or is not a known image format
+     */
+    public SubsampledImageReader(InputStream stream) throws IOException {
+        this(ImageIO.createImageInputStream(stream), "stream");
+    }
+
+    private SubsampledImageReader(ImageInputStream input, String name) throws IOException {
+        if (input == null) {
+            throw new IOException("Cannot open " + name);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + name);
+        }
+        this.input = input;
+        reader = readers.next();
+        reader.setInput(input, true, true);
+        width = reader.getWidth(0);
+        height = reader.getHeight(0);
+    }
+
+    /**
+     * @return the width of the full image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the full image
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Picks the largest subsampling factor that still leaves every tile at least
+     * minTileSamples sampled pixels per side.
+     * @param resolution     the number of tiles per row of the render
+     * @param minTileSamples the least number of sampled pixels per tile side, 0 or less
+     *                       to decode every pixel
+     * @return a power of two, {@link #NO_SUBSAMPLING} when every pixel is needed
+     */
+    public int subsampling(int resolution, int minTileSamples) {
+        if (minTileSamples <= 0 || resolution <= 0) {
+            return NO_SUBSAMPLING;
+        }
+        int tileSize = ImageProcessor.getNewSize(width) / resolution;
+        int factor = NO_SUBSAMPLING;
+        while ((long) factor * 2 * minTileSamples <= tileSize) {
+            factor *= 2;
+        }
+        return factor;
+    }
+
+    /**
+     * Decodes the image, keeping the top left pixel of every factor by factor block.
+     * @param factor the subsampling factor, {@link #NO_SUBSAMPLING} for the full image
+     * @return the decoded image, about factor squared times smaller than the full one
+     * @throws IOException if the image cannot be decoded
+     */
+    public Image read(int factor) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (factor > NO_SUBSAMPLING) {
+            param.setSourceSubsampling(factor, factor, 0, 0);
+        }
+        return new Image(reader.read(0, param));
+    }
+
+    /**
+     * Releases the decoder and the stream.
+     * @throws IOException if the stream cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
@@ -0,0 +1,138 @@
+package image;
+
+import java.util.Arrays;
+
+/**
+ * A hash of the pixels of every sub-image of an image, used to find the sub-images of an
+ * animation frame that are the same as in the previous frame.
+ * <p>
+ * The image is tiled exactly like {@link ImageProcessor#forEachSubImage(Image, int,
+ * SubImageConsumer)} tiles it once padded to powers of two. Hashing a pixel costs one
+ * multiplication, fewer than its luminance, so for a mostly still scene it is cheaper to
+ * hash every tile and measure only those whose hash changed. The hashes are 64 bit, so two
+ * different tiles practically never share one.
+ * <p>
+ * The brightness of a tile is summed from the pixels of the image directly, with the white
+ * padding accounted for arithmetically, and is the same as the one of
+ * {@link SubImage#calculateBrightness()} on the padded image. The hashes do not keep the
+ * image, so they can outlive it cheaply; measuring takes the image they were built from.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see BandedImageReader
+ */
+public final class TileHashes {
+    /** Multiplier that spreads the bits of the hash, the 64 bit golden ratio.*/
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** The luminance of a white padding pixel.*/
+    private static final int WHITE_LUMINANCE = SubImage.luminance(Image.WHITE_ARGB);
+
+    private final int width;
+    private final int height;
+    private final int resolutionsPerRow;
+    private final int rows;
+    private final int tileSize;
+    private final int rowsToPad;
+    private final int columnsToPad;
+
+    /** hashes[row * resolutionsPerRow + col] is the hash of sub-image (row, col).*/
+    private final long[] hashes;
+
+    /**
+     * Hashes every sub-image of an image, in a single pass over its pixels.
+     * @param image             an image that owns its raster, such as a decoded frame
+     * @param resolutionsPerRow the number of sub-images per row
+     */
+    public TileHashes(Image image, int resolutionsPerRow) {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.resolutionsPerRow = resolutionsPerRow;
+        int paddedWidth = ImageProcessor.getNewSize(width);
+        int paddedHeight = ImageProcessor.getNewSize(height);
+        tileSize = paddedWidth / resolutionsPerRow;
+        rows = paddedHeight / tileSize;
+        rowsToPad = ImageProcessor.calculatePadSize(paddedHeight, height);
+        columnsToPad = ImageProcessor.calculatePadSize(paddedWidth, width);
+        hashes = new long[rows * resolutionsPerRow];
+
+        int[] raster = image.raster();
+        for (int y = 0; y < height; y++) {
+            int row = (y + rowsToPad) / tileSize;
+            if (row >= rows) {
+                break;
+            }
+            int pixel = y * width;
+            for (int col = 0; col < resolutionsPerRow; col++) {
+                int left = Math.max(0, col * tileSize - columnsToPad);
+                int right = Math.min(width, (col + 1) * tileSize - columnsToPad);
+                long hash = hashes[row * resolutionsPerRow + col];
+                for (int x = left; x < right; x++) {
+                    hash = (hash + raster[pixel + x]) * HASH_MULTIPLIER;
+                }
+                hashes[row * resolutionsPerRow + col] = hash;
+            }
+        }
+    }
+
+    /**
+     * @return the number of rows of sub-images
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Finds the sub-images whose pixels changed since a previous frame.
+     * @param previous the hashes of the previous frame, or null for the first frame
+     * @return changed[row * resolutionsPerRow + col] tells whether sub-image (row, col)
+     *         changed; every sub-image did when there is no previous frame of the same size
+     */
+    public boolean[] changedSince(TileHashes previous) {
+        boolean[] changed = new boolean[hashes.length];
+        if (previous == null || previous.width != width || previous.height != height ||
+                previous.resolutionsPerRow != resolutionsPerRow) {
+            Arrays.fill(changed, true);
+            return changed;
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            changed[i] = hashes[i] != previous.hashes[i];
+        }
+        return changed;
+    }
+
+    /**
+     * Computes the brightness of some of the sub-images, reading only their pixels.
+     * @param image the image these hashes were built from
+     * @param tiles tiles[row * resolutionsPerRow + col] tells whether to measure
+     *              sub-image (row, col)
+     * @return the brightness of sub-image (i, j) at [i][j] when it was measured, NaN
+     *         otherwise
+     */
+    public double[][] brightnessGrid(Image image, boolean[] tiles) {
+        int[] raster = image.raster();
+        int numPixels = tileSize * tileSize;
+        double[][] brightness = new double[rows][resolutionsPerRow];
+        for (int row = 0; row < rows; row++) {
+            int top = Math.max(0, row * tileSize - rowsToPad);
+            int bottom = Math.min(height, (row + 1) * tileSize - rowsToPad);
+            for (int col = 0; col < resolutionsPerRow; col++) {
+                if (!tiles[row * resolutionsPerRow + col]) {
+                    brightness[row][col] = Double.NaN;
+                    continue;
+                }
+                int left = Math.max(0, col * tileSize - columnsToPad);
+                int right = Math.min(width, (col + 1) * tileSize - columnsToPad);
+                long sum = 0;
+                for (int y = top; y < bottom; y++) {
+                    for (int x = left; x < right; x++) {
+                        sum += SubImage.luminance(raster[y * width + x]);
+                    }
+                }
+                long covered = (long) Math.max(0, bottom - top) * Math.max(0, right - left);
+                long white = (long) numPixels - covered;
+                brightness[row][col] = SubImage.brightness(sum + white * WHITE_LUMINANCE, numPixels);
+            }
+        }
+        return brightness;
+    }
+}
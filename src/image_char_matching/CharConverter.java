@@ -10,11 +10,12 @@ import java.awt.image.BufferedImage;
  * https://dzone.com/articles/ascii-art-generator-java
  * Adaptations made by Dan Nirel and again by Rachel Behar.
  * The class converts characters to a binary "image" (2D array of booleans).
+ * Rendered characters are memoized in the {@link GlyphCache}.
  */
 public class CharConverter {
     private static final double X_OFFSET_FACTOR = 0.2;
     private static final double Y_OFFSET_FACTOR = 0.75;
-    private static final String FONT_NAME = "Courier New";
+    static final String FONT_NAME = "Courier New";
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
 
     /**
@@ -23,10 +24,22 @@ public class CharConverter {
      * whose dimension in pixels is specified.
      */
     public static boolean[][] convertToBoolArray(char c) {
-        BufferedImage img = getBufferedImage(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
-        boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
+        boolean[][] cached = GlyphCache.bitmap(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
+        boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][];
         for(int y = 0 ; y < DEFAULT_PIXEL_RESOLUTION ; y++) {
-            for(int x = 0 ; x < DEFAULT_PIXEL_RESOLUTION ; x++) {
+            matrix[y] = cached[y].clone();
+        }
+        return matrix;
+    }
+
+    /**
+     * Renders a character with AWT, without going through the cache.
+     */
+    static boolean[][] render(char c, String fontName, int pixelsPerRow) {
+        BufferedImage img = getBufferedImage(c, fontName, pixelsPerRow);
+        boolean[][] matrix = new boolean[pixelsPerRow][pixelsPerRow];
+        for(int y = 0 ; y < pixelsPerRow ; y++) {
+            for(int x = 0 ; x < pixelsPerRow ; x++) {
                 matrix[y][x] = img.getRGB(x, y) == 0; //is the color white
             }
         }
@@ -0,0 +1,236 @@
+package image_char_matching;
+
+import ascii_art.RoundingMode;
+
+import java.util.Arrays;
+
+/**
+ * An immutable copy of the characters of a {@link SubImgCharMatcher} and their normalized
+ * brightness, along with the search index and lookup tables built over them.
+ * <p>
+ * Everything is kept in primitive arrays that are never changed after construction, so a
+ * snapshot can be shared by any number of threads without locking, while the matcher it
+ * was taken from keeps being edited.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see SubImgCharMatcher#snapshot()
+ */
+public final class CharsetSnapshot {
+    /** The char that is returned when no character can be matched.*/
+    private static final char NO_CHAR = 0;
+
+    /** Marks a lookup table bucket whose brightness range maps to more than one char.*/
+    private static final int STRADDLES = -1;
+
+    /** All the characters, in ascending order.*/
+    private final char[] chars;
+
+    /** The distinct normalized brightness levels of the characters, in ascending order.*/
+    private final double[] sortedBrightness;
+
+    /** sortedChars[i] is the lowest character whose brightness is sortedBrightness[i].*/
+    private final char[] sortedChars;
+
+    /** Number of buckets the range [0, 1] is quantized to for the lookup tables, 0 for none.*/
+    private final int lookupBuckets;
+
+    /** Per rounding mode (by ordinal), the char of every brightness bucket, or STRADDLES.
+     * Null when there are no lookup tables.*/
+    private final int[][] lookupTables;
+
+    /**
+     * Builds a snapshot. Characters that share a brightness level are collapsed into the
+     * lowest of them, which is the one a search in character order would have picked, and
+     * characters whose brightness is NaN are never selected.
+     * @param chars         the characters in ascending order, owned by the snapshot
+     * @param brightness    brightness[i] is the normalized brightness of chars[i]
+     * @param lookupBuckets the number of lookup table buckets, a power of two or 0 for none
+     */
+    CharsetSnapshot(char[] chars, double[] brightness, int lookupBuckets) {
+        this.chars = chars;
+        Integer[] order = new Integer[chars.length];
+        int valid = 0;
+        for (int i = 0; i < chars.length; i++) {
+            if (!Double.isNaN(brightness[i])) {
+                order[valid++] = i;
+            }
+        }
+        // a stable sort keeps equal brightness levels in character order
+        Arrays.sort(order, 0, valid, (a, b) -> Double.compare(brightness[a], brightness[b]));
+
+        double[] levels = new double[valid];
+        char[] levelChars = new char[valid];
+        int count = 0;
+        for (int k = 0; k < valid; k++) {
+            int i = order[k];
+            if (count == 0 || levels[count - 1] != brightness[i]) {
+                levels[count] = brightness[i];
+                levelChars[count] = chars[i];
+                count++;
+            }
+        }
+        this.sortedBrightness = Arrays.copyOf(levels, count);
+        this.sortedChars = Arrays.copyOf(levelChars, count);
+        this.lookupBuckets = lookupBuckets;
+        this.lookupTables = lookupBuckets == 0 ? null : buildLookupTables();
+    }
+
+    /**
+     * @return the number of characters, including ones that share a brightness level
+     */
+    public int size() {
+        return chars.length;
+    }
+
+    /**
+     * Returns the characters, in ascending order. Two snapshots with the same characters
+     * map every brightness to the same char.
+     * @return a new array of the characters
+     */
+    public char[] getChars() {
+        return chars.clone();
+    }
+
+    /**
+     * Searches for the character with the brightness closest to the input brightness,
+     * using the roundingMode formula.
+     * <p>
+     * The search is a binary search over the sorted brightness levels of the characters.
+     * When several characters are equally close, the lowest character is returned.
+     * UP and DOWN fall back to ABS when no character lies on the requested side.
+     * When the snapshot has lookup tables most brightness values are answered by a single
+     * array access instead.
+     * @param brightness   The brightness which is sought after
+     * @param roundingMode The formula deciding which is closest
+     * @return             The character with the closest brightness
+     */
+    public char getCharByImageBrightness(double brightness, RoundingMode roundingMode) {
+        if (lookupTables != null && brightness >= 0 && brightness <= 1) {
+            int entry = lookupTables[roundingMode.ordinal()][(int) (brightness * lookupBuckets)];
+            if (entry != STRADDLES) {
+                return (char) entry;
+            }
+        }
+        return searchChar(brightness, roundingMode);
+    }
+
+    /**
+     * Quantizes the brightness range into buckets and precomputes, for every rounding mode,
+     * the char of each bucket.
+     * <p>
+     * A bucket only gets a char when the exact search gives that char at both of its ends.
+     * Since the selected brightness level never moves backwards as the brightness grows,
+     * the whole bucket then maps to it. Buckets that straddle a decision boundary fall back
+     * to the exact search, so the result is always the same as without the tables.
+     * Bucket k covers [k/buckets, (k+1)/buckets). Since buckets is a power of two, scaling
+     * a brightness by it is exact, so these are exactly the values that index bucket k.
+     * One extra bucket holds brightness 1.
+     */
+    private int[][] buildLookupTables() {
+        RoundingMode[] modes = RoundingMode.values();
+        int[][] tables = new int[modes.length][lookupBuckets + 1];
+        for (RoundingMode mode : modes) {
+            int[] table = tables[mode.ordinal()];
+            for (int bucket = 0; bucket <= lookupBuckets; bucket++) {
+                double low = (double) bucket / lookupBuckets;
+                double high = Math.nextDown((double) (bucket + 1) / lookupBuckets);
+                char lowChar = searchChar(low, mode);
+                table[bucket] = lowChar == searchChar(high, mode) ? lowChar : STRADDLES;
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * The exact search behind {@link #getCharByImageBrightness(double, RoundingMode)}.
+     * @param brightness   The brightness which is sought after
+     * @param roundingMode The formula deciding which is closest
+     * @return             The character with the closest brightness
+     */
+    private char searchChar(double brightness, RoundingMode roundingMode) {
+        if (sortedBrightness.length == 0 || Double.isNaN(brightness)) {
+            return NO_CHAR;
+        }
+        switch (roundingMode) {
+            case UP:
+                int above = lowerBound(brightness);
+                if (above < sortedBrightness.length) {
+                    return sortedChars[above];
+                }
+                break;
+            case DOWN:
+                int below = upperBound(brightness) - 1;
+                if (below >= 0) {
+                    return sortedChars[below];
+                }
+                break;
+            default:
+                break;
+        }
+        return closestChar(brightness);
+    }
+
+    /**
+     * Finds the character with the minimum absolute difference in brightness.
+     * The closest levels are the two around the insertion point of the brightness, every
+     * level that is exactly as close competes as well and the lowest character wins.
+     * @param brightness the brightness which is sought after
+     * @return the lowest of the characters closest to the brightness
+     */
+    private char closestChar(double brightness) {
+        int above = lowerBound(brightness);
+        int below = above - 1;
+        double bestDiff = Double.MAX_VALUE;
+        if (below >= 0) {
+            bestDiff = Math.abs(sortedBrightness[below] - brightness);
+        }
+        if (above < sortedBrightness.length) {
+            bestDiff = Math.min(bestDiff, Math.abs(sortedBrightness[above] - brightness));
+        }
+        char selectedChar = Character.MAX_VALUE;
+        for (int i = below; i >= 0 && Math.abs(sortedBrightness[i] - brightness) == bestDiff; i--) {
+            selectedChar = (char) Math.min(selectedChar, sortedChars[i]);
+        }
+        for (int i = above; i < sortedBrightness.length &&
+                Math.abs(sortedBrightness[i] - brightness) == bestDiff; i++) {
+            selectedChar = (char) Math.min(selectedChar, sortedChars[i]);
+        }
+        return selectedChar;
+    }
+
+    /**
+     * @param brightness the brightness to look for
+     * @return the index of the first level that is greater than or equal to the brightness
+     */
+    private int lowerBound(double brightness) {
+        int low = 0;
+        int high = sortedBrightness.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedBrightness[middle] < brightness) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param brightness the brightness to look for
+     * @return the index of the first level that is strictly greater than the brightness
+     */
+    private int upperBound(double brightness) {
+        int low = 0;
+        int high = sortedBrightness.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedBrightness[middle] <= brightness) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,268 @@
+package image_char_matching;
+
+import java.awt.Font;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A process-wide, thread-safe memo of rendered glyphs.
+ * <p>
+ * Rendering a character with AWT (see {@link CharConverter}) is slow, mostly because of
+ * font initialization, so every glyph is rendered once per (char, font, resolution) and
+ * kept here along with its brightness. The cache can also be saved to a compact file and
+ * loaded back by a later process, which then does not render any glyph it already knows.
+ * A font that is not installed is drawn in a fallback font, so glyphs are keyed by the
+ * font a requested name resolves to on this machine, and glyphs that a file holds for
+ * another font are never used in its place.
+ * The file ends with a CRC-32 of everything before it, and its glyphs are only used once
+ * the whole file was read and the checksum matched, so a damaged file never changes the
+ * brightness of a char.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ * @see CharConverter
+ * @see SubImgCharMatcher
+ */
+public class GlyphCache {
+    /** First bytes of a cache file.*/
+    private static final int MAGIC = 0x474C5943;
+
+    /** Version of the cache file format.*/
+    private static final int VERSION = 3;
+
+    /** The largest glyph resolution accepted from a file, far above any real use.*/
+    private static final int MAX_RESOLUTION = 1024;
+
+    /** The most glyphs accepted from a file, every char in a few dozen fonts and sizes.*/
+    private static final int MAX_GLYPHS = 1 << 22;
+
+    /** Number of bits in a byte of the packed bitmaps.*/
+    private static final int BITS_PER_BYTE = 8;
+
+    /** All glyphs rendered or loaded so far.*/
+    private static final Map<Key, Glyph> GLYPHS = new ConcurrentHashMap<>();
+
+    /** The font every requested font name resolves to, looked up once per name.*/
+    private static final Map<String, String> RESOLVED_FONTS = new ConcurrentHashMap<>();
+
+    private GlyphCache() {
+    }
+
+    /**
+     * Returns the bitmap of a character, rendering it only the first time.
+     * The returned array is shared and must not be modified.
+     * @param c          the character
+     * @param fontName   the font the character is rendered in
+     * @param resolution the side of the square bitmap
+     * @return the bitmap, true where the glyph is not drawn
+     */
+    static boolean[][] bitmap(char c, String fontName, int resolution) {
+        return glyph(c, fontName, resolution).bitmap;
+    }
+
+    /**
+     * Returns the brightness of a character: the fraction of its bitmap that is not drawn.
+     * @param c          the character
+     * @param fontName   the font the character is rendered in
+     * @param resolution the side of the square bitmap
+     * @return the brightness, between 0 and 1
+     */
+    public static double brightness(char c, String fontName, int resolution) {
+        return glyph(c, fontName, resolution).brightness;
+    }
+
+    /**
+     * Loads the glyphs saved in a cache file. A missing file is not an error, it simply
+     * means there is nothing to load yet. An unreadable, foreign or damaged file is logged
+     * and skipped as a whole, the glyphs are then rendered as usual.
+     * @param file the cache file
+     */
+    public static void load(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        Map<Key, Glyph> loaded = new HashMap<>();
+        CheckedInputStream checked;
+        try (DataInputStream in = new DataInputStream(checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file)), new CRC32()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Logger.getGlobal().warning(String.format("Ignoring glyph cache \"%s\"", file));
+                return;
+            }
+            int count = in.readInt();
+            if (count < 0 || count > MAX_GLYPHS) {
+                throw new IOException("Bad glyph count " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                String fontName = in.readUTF();
+                int resolution = in.readInt();
+                if (resolution <= 0 || resolution > MAX_RESOLUTION) {
+                    throw new IOException("Bad glyph resolution " + resolution);
+                }
+                char c = in.readChar();
+                byte[] packed = new byte[packedLength(resolution)];
+                in.readFully(packed);
+                loaded.put(new Key(c, fontName, resolution), new Glyph(unpack(packed, resolution)));
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Checksum mismatch");
+            }
+        } catch (IOException e) {
+            Logger.getGlobal().warning(String.format("Failed to read glyph cache \"%s\": %s",
+                    file, e));
+            return;
+        }
+        loaded.forEach(GLYPHS::putIfAbsent);
+    }
+
+    /**
+     * Saves every glyph known to this process, one bit per pixel. The file is written
+     * next to its destination first and then moved over it, so a crash never leaves a
+     * half written cache behind, and a failed write removes it.
+     * @param file the cache file
+     */
+    public static void save(Path file) {
+        Path absolute = file.toAbsolutePath();
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), null);
+            CheckedOutputStream checked;
+            try (DataOutputStream out = new DataOutputStream(checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)), new CRC32()))) {
+                Map<Key, Glyph> snapshot = Map.copyOf(GLYPHS);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<Key, Glyph> entry : snapshot.entrySet()) {
+                    Key key = entry.getKey();
+                    out.writeUTF(key.fontName);
+                    out.writeInt(key.resolution);
+                    out.writeChar(key.c);
+                    out.write(pack(entry.getValue().bitmap, key.resolution));
+                }
+                out.writeLong(checked.getChecksum().getValue());
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Logger.getGlobal().warning(String.format("Failed to write glyph cache \"%s\"", file));
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // the write already failed and was reported
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached glyph, rendering it on a miss.
+     */
+    private static Glyph glyph(char c, String fontName, int resolution) {
+        return GLYPHS.computeIfAbsent(new Key(c, resolvedFont(fontName), resolution),
+                key -> new Glyph(CharConverter.render(c, fontName, resolution)));
+    }
+
+    /**
+     * Returns the name of the font that is drawn for a requested font name, such as a
+     * fallback font when the requested one is not installed, independent of the locale.
+     */
+    private static String resolvedFont(String fontName) {
+        return RESOLVED_FONTS.computeIfAbsent(fontName,
+                name -> new Font(name, Font.PLAIN, 1).getFontName(Locale.ROOT));
+    }
+
+    private static int packedLength(int resolution) {
+        return (resolution * resolution + BITS_PER_BYTE - 1) / BITS_PER_BYTE;
+    }
+
+    private static byte[] pack(boolean[][] bitmap, int resolution) {
+        byte[] packed = new byte[packedLength(resolution)];
+        for (int y = 0; y < resolution; y++) {
+            for (int x = 0; x < resolution; x++) {
+                if (bitmap[y][x]) {
+                    int bit = y * resolution + x;
+                    packed[bit / BITS_PER_BYTE] |= 1 << (bit % BITS_PER_BYTE);
+                }
+            }
+        }
+        return packed;
+    }
+
+    private static boolean[][] unpack(byte[] packed, int resolution) {
+        boolean[][] bitmap = new boolean[resolution][resolution];
+        for (int y = 0; y < resolution; y++) {
+            for (int x = 0; x < resolution; x++) {
+                int bit = y * resolution + x;
+                bitmap[y][x] = (packed[bit / BITS_PER_BYTE] & (1 << (bit % BITS_PER_BYTE))) != 0;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Identifies a glyph: a character rendered in a font at a resolution. The font is the
+     * one that was actually drawn, not the one that was requested.
+     */
+    private static final class Key {
+        private final char c;
+        private final String fontName;
+        private final int resolution;
+
+        Key(char c, String fontName, int resolution) {
+            this.c = c;
+            this.fontName = fontName;
+            this.resolution = resolution;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return c == other.c && resolution == other.resolution && fontName.equals(other.fontName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(c, fontName, resolution);
+        }
+    }
+
+    /**
+     * A rendered glyph and its brightness.
+     */
+    private static final class Glyph {
+        private final boolean[][] bitmap;
+        private final double brightness;
+
+        Glyph(boolean[][] bitmap) {
+            this.bitmap = bitmap;
+            int numTrue = 0;
+            for (boolean[] row : bitmap) {
+                for (boolean pixel : row) {
+                    if (pixel) {
+                        numTrue++;
+                    }
+                }
+            }
+            this.brightness = (double) numTrue / (bitmap.length * bitmap.length);
+        }
+    }
+}
@@ -2,14 +2,19 @@ package image_char_matching;
 
 import ascii_art.RoundingMode;
 
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.TreeMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * This class manages a set of characters and maps each one to a normalized brightness
  * value based on its visual representation in a 16x16 pixel grid
- * Supports adding and removing characters from the set
+ * Supports adding and removing characters from the set.
+ * Lookups go through an immutable {@link CharsetSnapshot} of the characters, which is
+ * rebuilt on the first lookup after a change and can be handed to other threads.
  * @author Ishay Shaul
  * @author Maoz Bar Shimon
  * @see ascii_art.AsciiArtAlgorithm
@@ -32,6 +37,14 @@ public class SubImgCharMatcher {
 
     private final TreeMap<Character, Double> originalBrightnessMap = new TreeMap<>();
 
+    /** Number of buckets the range [0, 1] is quantized to for the lookup tables, 0 for none.*/
+    private int lookupBuckets;
+
+    /** The characters as of the last normalization, null when they changed since.*/
+    private volatile CharsetSnapshot snapshot;
+
+    /** True when a removed character may have been the brightest or the darkest one.*/
+    private boolean boundsStale;
 
     /**
      * Constructs a class whose priority is being in charge of the characters and their
@@ -41,11 +54,9 @@ public class SubImgCharMatcher {
     public SubImgCharMatcher(char[] charset){
         this.charSet = new HashSet<Character>();
         this.charBrightnessMap = new TreeMap<>();
-        for(char c : charset){
-            addChar(c);
-        }
-        setMaximumAndMinimumBrightness();
-        normalizeBrightness();
+        this.maxBrightness = 0;
+        this.minBrightness = 1;
+        addChars(charset);
     }
 
     /**
@@ -54,11 +65,13 @@ public class SubImgCharMatcher {
      */
     public void removeChar(char c){
         if (charSet.contains(c)) {
-            originalBrightnessMap.remove(c);
+            Double cBrightness = originalBrightnessMap.remove(c);
             charBrightnessMap.remove(c);
             charSet.remove(c);
-            setMaximumAndMinimumBrightness();
-            normalizeBrightness();
+            if (cBrightness == maxBrightness || cBrightness == minBrightness) {
+                boundsStale = true;
+            }
+            snapshot = null;
         }
     }
 
@@ -72,82 +85,152 @@ public class SubImgCharMatcher {
             double cBrightness = calculateBrightness(c);
             originalBrightnessMap.put(c, cBrightness);
             charBrightnessMap.put(c, cBrightness);
-            setMaximumAndMinimumBrightness();
-            normalizeBrightness();
+            maxBrightness = Math.max(maxBrightness, cBrightness);
+            minBrightness = Math.min(minBrightness, cBrightness);
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Adds all the given characters. The brightness levels are normalized only once,
+     * on the next lookup, rather than after every character.
+     * @param chars the characters to add, ones already in the set are ignored
+     */
+    public void addChars(char[] chars){
+        for (char c : chars) {
+            addChar(c);
+        }
+    }
+
+    /**
+     * Removes all the given characters. The brightness levels are normalized only once,
+     * on the next lookup, rather than after every character.
+     * @param chars the characters to remove, ones not in the set are ignored
+     */
+    public void removeChars(char[] chars){
+        for (char c : chars) {
+            removeChar(c);
         }
     }
 
+    /**
+     * Adds every character between first and last, both included. first isn't
+     * necessarily smaller than last.
+     * @param first one end of the range
+     * @param last  the other end of the range
+     */
+    public void addCharRange(char first, char last){
+        for (int c = Math.min(first, last); c <= Math.max(first, last); c++) {
+            addChar((char) c);
+        }
+    }
+
+    /**
+     * Removes every character between first and last, both included. first isn't
+     * necessarily smaller than last.
+     * @param first one end of the range
+     * @param last  the other end of the range
+     */
+    public void removeCharRange(char first, char last){
+        for (int c = Math.min(first, last); c <= Math.max(first, last); c++) {
+            removeChar((char) c);
+        }
+    }
+
+    /**
+     * Brings the normalized map and the snapshot up to date with the characters, if they
+     * changed since the last time. Adding and removing characters only marks them as
+     * outdated, so any number of changes costs a single normalization.
+     * Concurrent lookups agree on who normalizes, but changing the characters while
+     * looking up is not supported; threads that render while the characters change should
+     * each hold a {@link #snapshot()} instead.
+     * @return the up to date snapshot
+     */
+    private CharsetSnapshot ensureNormalized(){
+        CharsetSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    if (boundsStale) {
+                        setMaximumAndMinimumBrightness();
+                        boundsStale = false;
+                    }
+                    normalizeBrightness();
+                    current = takeSnapshot();
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns an immutable snapshot of the current characters and their normalized
+     * brightness. Later changes to this matcher do not affect it, so any number of threads
+     * can look up chars in it without locking.
+     * @return the snapshot, the same object until the characters change
+     */
+    public CharsetSnapshot snapshot(){
+        return ensureNormalized();
+    }
 
     /**
      * We receive a brightness and search for the character with the brightness closest
      * to the input brightness, using the roundingMode formula.
+     * When several characters are equally close, the lowest character is returned.
+     * UP and DOWN fall back to ABS when no character lies on the requested side.
      * @param brightness   The brightness which is sought after
      * @param roundingMode The formula deciding which is closest
      * @return             The character with the closest brightness
+     * @see CharsetSnapshot#getCharByImageBrightness(double, RoundingMode)
      */
     public char getCharByImageBrightness(double brightness, RoundingMode roundingMode){
-        char selectedChar = 0;
-        double bestDiff = Double.MAX_VALUE;
-        boolean found = false;
-
-        for(Map.Entry<Character, Double> entry : charBrightnessMap.entrySet()){
-            double charBrightness = entry.getValue();
-            char c = entry.getKey();
-
-            switch (roundingMode) {
-                case ABS:
-                    double absDiff = Math.abs(charBrightness - brightness);
-                    if (absDiff < bestDiff) {
-                        bestDiff = absDiff;
-                        selectedChar = c;
-                    }
-                    break;
-
-                case UP:
-                    if (charBrightness >= brightness) {
-                        if (!found || charBrightness < bestDiff) {
-                            bestDiff = charBrightness;
-                            selectedChar = c;
-                            found = true;
-                        }
-                    }
-                    break;
-
-                case DOWN:
-                    if (charBrightness <= brightness) {
-                        if (!found || charBrightness > bestDiff) {
-                            bestDiff = charBrightness;
-                            selectedChar = c;
-                            found = true;
-                        }
-                    }
-                    break;
-            }
+        return ensureNormalized().getCharByImageBrightness(brightness, roundingMode);
+    }
+
+    /**
+     * Sets the number of buckets the brightness range is quantized to, so that snapshots
+     * answer most lookups with a single array access. Buckets that straddle a decision
+     * boundary fall back to the exact search, so the result is always the same as without
+     * the tables. The tables are rebuilt along with the snapshot.
+     * @param buckets the number of buckets, a power of two (e.g. 4096 or 65536), or 0 to
+     *                drop the tables
+     * @throws IllegalArgumentException if buckets is neither 0 nor a power of two
+     */
+    public void setLookupTableBuckets(int buckets){
+        if (buckets < 0 || (buckets & (buckets - 1)) != 0) {
+            throw new IllegalArgumentException("buckets must be 0 or a power of two: " + buckets);
         }
-        if (!found && roundingMode != RoundingMode.ABS) {
-            return getCharByImageBrightness(brightness, RoundingMode.ABS);
+        lookupBuckets = buckets;
+        snapshot = null;
+    }
+
+    /**
+     * Copies the normalized brightness map into a new snapshot.
+     */
+    private CharsetSnapshot takeSnapshot(){
+        char[] chars = new char[charBrightnessMap.size()];
+        double[] brightness = new double[chars.length];
+        int i = 0;
+        for (Map.Entry<Character, Double> entry : charBrightnessMap.entrySet()) {
+            chars[i] = entry.getKey();
+            brightness[i] = entry.getValue();
+            i++;
         }
-        return selectedChar;
+        return new CharsetSnapshot(chars, brightness, lookupBuckets);
     }
 
     /**
      * calculates brightness for a specific character. we turn the character into a 16x16
-     * matrix, where some are false, and some true. brightness = sum true / (16*16)
+     * matrix, where some are false, and some true. brightness = sum true / (16*16).
+     * The glyph is rendered only once per process, see {@link GlyphCache}.
      * @param c the character whose brightness is being calculated
      * @return  the brightness of character c
      *
      */
     private double calculateBrightness(Character c){
-        boolean[][] miniMatrix = CharConverter.convertToBoolArray(c);
-        int numTrue = 0;
-        for(int i = 0; i < miniMatrix.length; i++) {
-            for (int j = 0; j < miniMatrix[i].length; j++) {
-                if (miniMatrix[i][j]) {
-                    numTrue++;
-                }
-            }
-        }
-        return (double) numTrue / (PIXEL_SIZE * PIXEL_SIZE);
+        return GlyphCache.brightness(c, CharConverter.FONT_NAME, PIXEL_SIZE);
     }
 
     /**
@@ -192,20 +275,35 @@ public class SubImgCharMatcher {
 
     /**
      * getter for the map
-     * @return the map of characters and their brightness level
+     * @return a read-only view of the map of characters and their brightness level
      * @author Ishay Shaul
      * @author Maoz Bar Shimon
      */
-    public TreeMap<Character, Double> getCharBrightnessMap(){
-        return charBrightnessMap;
+    public SortedMap<Character, Double> getCharBrightnessMap(){
+        ensureNormalized();
+        return Collections.unmodifiableSortedMap(charBrightnessMap);
+    }
+
+    /**
+     * Returns the characters in use, in ascending order. Two matchers with the same
+     * characters map every brightness to the same char.
+     * @return a new array of the characters
+     */
+    public char[] getChars(){
+        char[] chars = new char[originalBrightnessMap.size()];
+        int i = 0;
+        for (char c : originalBrightnessMap.keySet()) {
+            chars[i++] = c;
+        }
+        return chars;
     }
 
     /**
      * getter for the hash table containing the characters
-     * @return the hash set
+     * @return a read-only view of the hash set
      */
-    public HashSet<Character> getCharSet(){
-        return charSet;
+    public Set<Character> getCharSet(){
+        return Collections.unmodifiableSet(charSet);
     }
 }
 
@@ -0,0 +1,113 @@
+package ascii_art;
+
+import ascii_output.AnimationOutput;
+import ascii_output.DeltaFileAnimationOutput;
+import image.Image;
+import image.ImageProcessor;
+import image_char_matching.CharsetSnapshot;
+import image_char_matching.SubImgCharMatcher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that an animation converted with tile reuse, written to a delta file and
+ * replayed, holds exactly the frames a full render of every frame draws.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class AnimationConverterTest {
+    private static final int FRAMES = 24;
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 170;
+    private static final int[] RESOLUTIONS = {16, 32, 64};
+    private static final int THREADS = 3;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reusedTilesMatchAFullRender() throws IOException, InterruptedException {
+        Path frames = directory.resolve("frames");
+        frames.toFile().mkdir();
+        for (int i = 0; i < FRAMES; i++) {
+            ImageIO.write(drawFrame(i), "png", frames.resolve("f" + i + ".png").toFile());
+        }
+        SubImgCharMatcher charMatcher = new SubImgCharMatcher("0123456789".toCharArray());
+        CharsetSnapshot charset = charMatcher.snapshot();
+        for (int resolution : RESOLUTIONS) {
+            String file = directory.resolve("animation" + resolution + ".asca").toString();
+            new AnimationConverter(frames.toString(), resolution, charset, RoundingMode.ABS,
+                    "file", file, 0, THREADS).run();
+            List<char[][]> replayed = new ArrayList<>();
+            DeltaFileAnimationOutput.replay(file, collect(replayed));
+            assertEquals(FRAMES, replayed.size());
+            for (int i = 0; i < FRAMES; i++) {
+                Image image = new Image(frames.resolve("f" + i + ".png").toString());
+                char[][] expected = new AsciiArtAlgorithm(image, resolution, new ImageProcessor(),
+                        charset, RoundingMode.ABS, null, null).run();
+                assertEquals(expected.length, replayed.get(i).length);
+                for (int row = 0; row < expected.length; row++) {
+                    assertArrayEquals(expected[row], replayed.get(i)[row],
+                            "frame " + i + ", row " + row + " at resolution " + resolution);
+                }
+            }
+        }
+    }
+
+    /**
+     * A still background with a moving disc and a square that comes and goes, so most
+     * tiles are reused, and every fifth frame repeats the one before it.
+     */
+    private static BufferedImage drawFrame(int index) {
+        int step = index % 5 == 4 ? index - 1 : index;
+        BufferedImage frame = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = frame.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.LIGHT_GRAY, WIDTH, 0, Color.WHITE));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.setColor(Color.BLACK);
+        graphics.fillOval((step * 11) % (WIDTH - 30), (step * 7) % (HEIGHT - 30), 30, 30);
+        if ((step / 6) % 2 == 0) {
+            graphics.setColor(Color.DARK_GRAY);
+            graphics.fillRect(200, 100, 50, 50);
+        }
+        graphics.dispose();
+        return frame;
+    }
+
+    /**
+     * An output that keeps a copy of every frame.
+     */
+    private static AnimationOutput collect(List<char[][]> frames) {
+        return new AnimationOutput() {
+            @Override
+            public void begin(int rows, int columns) {
+            }
+
+            @Override
+            public void writeFrame(char[][] frame, int delayMillis) {
+                char[][] copy = new char[frame.length][];
+                for (int row = 0; row < frame.length; row++) {
+                    copy[row] = frame[row].clone();
+                }
+                frames.add(copy);
+            }
+
+            @Override
+            public void end() {
+            }
+        };
+    }
+}
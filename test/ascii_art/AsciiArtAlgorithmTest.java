@@ -0,0 +1,65 @@
+package ascii_art;
+
+import baseline.Baseline;
+import image.Image;
+import image.ImageProcessor;
+import image_char_matching.SubImgCharMatcher;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the boards the algorithm draws are the ones the {@link Baseline} draws, on
+ * images that need padding and at every resolution they support, in every rounding mode.
+ * <p>
+ * The one difference is white tiles, such as the padding: the baseline summed the grey
+ * levels in doubles, which left them just below 1, while the algorithm sums them exactly.
+ * Rounding down, a white tile now gets the brightest char instead of the one below it.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class AsciiArtAlgorithmTest {
+    private static final int[][] SIZES = {{37, 23}, {200, 150}, {129, 65}, {64, 64}, {17, 300}};
+    private static final String[] CHARSETS = {"0123456789", " .:-=+*#%@", "<>&ab"};
+
+    /** Far above the rounding of the baseline's sums, far below the gap between two chars.*/
+    private static final double TOLERANCE = 1e-9;
+    private static final double WHITE = 1.0;
+    private static final long SEED = 2;
+
+    @Test
+    void boardsMatchTheBaseline() {
+        Random random = new Random(SEED);
+        for (int[] size : SIZES) {
+            Color[][] pixels = Baseline.randomPixels(random, size[0], size[1]);
+            Color[][] padded = Baseline.pad(pixels);
+            Image image = new Image(pixels, size[0], size[1]);
+            for (String charset : CHARSETS) {
+                SubImgCharMatcher charMatcher = new SubImgCharMatcher(charset.toCharArray());
+                for (int resolution = 2; resolution <= size[0]; resolution *= 2) {
+                    double[][] brightness = Baseline.brightnessGrid(padded, resolution);
+                    for (RoundingMode mode : RoundingMode.values()) {
+                        char[][] board = new AsciiArtAlgorithm(image, resolution,
+                                new ImageProcessor(), charMatcher, mode).run();
+                        String message = size[0] + "x" + size[1] + " in \"" + charset +
+                                "\" at resolution " + resolution + " " + mode;
+                        assertEquals(brightness.length, board.length, message);
+                        for (int row = 0; row < board.length; row++) {
+                            for (int column = 0; column < resolution; column++) {
+                                double b = brightness[row][column];
+                                if (b > WHITE - TOLERANCE) {
+                                    b = WHITE;
+                                }
+                                assertEquals(charMatcher.getCharByImageBrightness(b, mode),
+                                        board[row][column], message + " at " + row + "," + column);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
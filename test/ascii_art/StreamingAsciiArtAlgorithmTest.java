@@ -0,0 +1,121 @@
+package ascii_art;
+
+import image.BandedImageReader;
+import image.Image;
+import image.ImageProcessor;
+import image_char_matching.SubImgCharMatcher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a board drawn band by band straight from the file is the one drawn from the
+ * whole image in memory, for files read in one sequential pass and files read by bands,
+ * whatever the number of rows per band.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class StreamingAsciiArtAlgorithmTest {
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 97;
+    private static final int[] RESOLUTIONS = {2, 16, 64, 128};
+    private static final int[] ROWS_PER_BAND = {1, 3, StreamingAsciiArtAlgorithm.AUTO_ROWS_PER_BAND};
+    private static final long SEED = 9;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void sequentialFilesMatchTheImageInMemory() throws IOException {
+        BufferedImage colors = drawImage(BufferedImage.TYPE_INT_RGB);
+        assertStreamedLikeInMemory(write(colors, "png", "colors.png", false), true);
+        assertStreamedLikeInMemory(write(colors, "jpeg", "colors.jpeg", false), true);
+        assertStreamedLikeInMemory(
+                write(drawImage(BufferedImage.TYPE_BYTE_GRAY), "png", "grey.png", false), true);
+    }
+
+    @Test
+    void filesReadByBandsMatchTheImageInMemory() throws IOException {
+        BufferedImage colors = drawImage(BufferedImage.TYPE_INT_RGB);
+        assertStreamedLikeInMemory(write(colors, "jpeg", "progressive.jpeg", true), false);
+        assertStreamedLikeInMemory(write(colors, "bmp", "colors.bmp", false), false);
+        assertStreamedLikeInMemory(write(colors, "gif", "colors.gif", false), false);
+    }
+
+    private static void assertStreamedLikeInMemory(String file, boolean sequential)
+            throws IOException {
+        try (BandedImageReader reader = new BandedImageReader(file)) {
+            assertEquals(sequential, reader.isSequential(), file);
+        }
+        Image image = new Image(file);
+        SubImgCharMatcher charMatcher = new SubImgCharMatcher(" .:-=+*#%@".toCharArray());
+        for (int resolution : RESOLUTIONS) {
+            for (RoundingMode mode : RoundingMode.values()) {
+                char[][] expected = new AsciiArtAlgorithm(image, resolution, new ImageProcessor(),
+                        charMatcher, mode).run();
+                for (int rowsPerBand : ROWS_PER_BAND) {
+                    char[][] streamed = new StreamingAsciiArtAlgorithm(file, resolution,
+                            charMatcher, mode, rowsPerBand).run();
+                    String message = file + " at resolution " + resolution + " " + mode + ", " +
+                            rowsPerBand + " rows per band";
+                    assertEquals(expected.length, streamed.length, message);
+                    for (int row = 0; row < expected.length; row++) {
+                        assertArrayEquals(expected[row], streamed[row], message + ", row " + row);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A gradient with random dots, so that neighbouring tiles differ and the edges of the
+     * bands show.
+     */
+    private static BufferedImage drawImage(int type) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, WIDTH, HEIGHT, Color.ORANGE));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.dispose();
+        Random random = new Random(SEED);
+        for (int i = 0; i < WIDTH * HEIGHT / 4; i++) {
+            image.setRGB(random.nextInt(WIDTH), random.nextInt(HEIGHT), random.nextInt(0x1000000));
+        }
+        return image;
+    }
+
+    private String write(BufferedImage image, String format, String name, boolean progressive)
+            throws IOException {
+        File file = directory.resolve(name).toFile();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        assertTrue(file.length() > 0, name);
+        return file.getPath();
+    }
+}
@@ -0,0 +1,84 @@
+package ascii_output;
+
+import baseline.Baseline;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the console output prints exactly what the {@link Baseline} printed, whether
+ * a whole board is output at once or streamed row by row, and when boards of different
+ * widths follow each other.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class ConsoleAsciiOutputTest {
+    private static final int[][] SIZES = {{1, 1}, {7, 3}, {64, 32}, {3, 200}, {128, 1}};
+    private static final long SEED = 17;
+
+    @Test
+    void boardsArePrintedLikeTheBaseline() {
+        Random random = new Random(SEED);
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        ConsoleAsciiOutput output = new ConsoleAsciiOutput(new PrintStream(printed, true,
+                Charset.defaultCharset()));
+        StringBuilder expected = new StringBuilder();
+        for (int[] size : SIZES) {
+            char[][] board = randomBoard(random, size[0], size[1]);
+            output.out(board);
+            expected.append(Baseline.console(board));
+        }
+        assertEquals(expected.toString(), printed.toString(Charset.defaultCharset()));
+    }
+
+    @Test
+    void streamedRowsArePrintedLikeTheBaseline() {
+        char[][] board = randomBoard(new Random(SEED), 40, 25);
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        ConsoleAsciiOutput output = new ConsoleAsciiOutput(new PrintStream(printed, true,
+                Charset.defaultCharset()));
+        output.begin(board.length, board[0].length);
+        for (int row = 0; row < board.length; row++) {
+            if (row % 2 == 0) {
+                output.writeRow(board[row]);
+            } else {
+                output.writeRow(CharBuffer.wrap(board[row]));
+            }
+        }
+        output.end();
+        assertEquals(Baseline.console(board), printed.toString(Charset.defaultCharset()));
+    }
+
+    @Test
+    void theDefaultOutputIsTheConsole() {
+        char[][] board = randomBoard(new Random(SEED), 9, 4);
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(printed, true, Charset.defaultCharset()));
+        try {
+            new ConsoleAsciiOutput().out(board);
+        } finally {
+            System.setOut(console);
+        }
+        assertEquals(Baseline.console(board), printed.toString(Charset.defaultCharset()));
+    }
+
+    /**
+     * A board of printable ASCII chars, the chars a charset can hold.
+     */
+    static char[][] randomBoard(Random random, int columns, int rows) {
+        char[][] board = new char[rows][columns];
+        for (char[] row : board) {
+            for (int x = 0; x < columns; x++) {
+                row[x] = (char) (' ' + random.nextInt('~' - ' ' + 1));
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,88 @@
+package ascii_output;
+
+import baseline.Baseline;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks that the HTML output writes exactly the file the {@link Baseline} wrote, with
+ * the chars HTML escapes, chars outside ASCII and boards larger than the write buffer,
+ * whether it is written to a file, compressed or to a writer.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class HtmlAsciiOutputTest {
+    private static final String FONT = "Courier New";
+
+    /** Chars HTML escapes, ASCII ones and some the default charset may not map.*/
+    private static final char[] CHARS = "<>&ab@# .éש█".toCharArray();
+
+    /** Small boards, and one many times larger than the byte buffer of the output.*/
+    private static final int[][] SIZES = {{1, 1}, {7, 3}, {300, 2}, {1000, 700}};
+    private static final long SEED = 18;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void filesAreWrittenLikeTheBaseline() throws IOException {
+        Random random = new Random(SEED);
+        for (int[] size : SIZES) {
+            char[][] board = randomBoard(random, size[0], size[1]);
+            byte[] expected = baselineBytes(board);
+            Path file = directory.resolve("out.html");
+            HtmlAsciiOutput output = new HtmlAsciiOutput(file.toString(), FONT);
+            output.out(board);
+            assertFalse(output.checkError());
+            assertArrayEquals(expected, Files.readAllBytes(file), size[0] + "x" + size[1]);
+        }
+    }
+
+    @Test
+    void compressedFilesHoldTheBaselineFile() throws IOException {
+        char[][] board = randomBoard(new Random(SEED), 500, 400);
+        Path file = directory.resolve("out.html.gz");
+        new HtmlAsciiOutput(file.toString(), FONT, true).out(board);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertArrayEquals(baselineBytes(board), in.readAllBytes());
+        }
+    }
+
+    @Test
+    void pagesAreWrittenToAWriterLikeTheBaseline() throws IOException {
+        char[][] board = randomBoard(new Random(SEED), 90, 40);
+        StringWriter page = new StringWriter();
+        new HtmlAsciiOutput(null, FONT).write(board, page);
+        // the baseline file holds the page encoded, unmappable chars included
+        assertArrayEquals(baselineBytes(board),
+                page.toString().getBytes(Charset.defaultCharset()));
+    }
+
+    private byte[] baselineBytes(char[][] board) throws IOException {
+        Path file = directory.resolve("baseline.html");
+        Baseline.html(board, file.toString(), FONT);
+        return Files.readAllBytes(file);
+    }
+
+    private static char[][] randomBoard(Random random, int columns, int rows) {
+        char[][] board = new char[rows][columns];
+        for (char[] row : board) {
+            for (int x = 0; x < columns; x++) {
+                row[x] = CHARS[random.nextInt(CHARS.length)];
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,193 @@
+package baseline;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The pipeline as it was before it was optimized, kept to check that the fast paths give
+ * the same results: pixels decoded one {@link Color} at a time, padding and sub images
+ * copied into new arrays, brightness summed in doubles, and the console and HTML outputs
+ * written char by char. Pixel arrays are indexed by row, then column.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+public final class Baseline {
+    private static final int MAX_RGB = 255;
+    private static final double RED_MULTIPLIER = 0.2126;
+    private static final double GREEN_MULTIPLIER = 0.7152;
+    private static final double BLUE_MULTIPLIER = 0.0722;
+    private static final double BASE_LINE_SPACING = 0.8;
+    private static final double BASE_FONT_SIZE = 150.0;
+
+    private Baseline() {
+    }
+
+    /**
+     * Reads every pixel of a decoded image through {@link BufferedImage#getRGB(int, int)}.
+     */
+    public static Color[][] pixels(BufferedImage image) {
+        Color[][] pixels = new Color[image.getHeight()][image.getWidth()];
+        for (int i = 0; i < image.getHeight(); i++) {
+            for (int j = 0; j < image.getWidth(); j++) {
+                pixels[i][j] = new Color(image.getRGB(j, i));
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * An opaque image of random colors, so that no two tiles sum alike by chance.
+     */
+    public static Color[][] randomPixels(Random random, int width, int height) {
+        Color[][] pixels = new Color[height][width];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                pixels[i][j] = new Color(random.nextInt(0x1000000));
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Copies the pixels into the middle of a white array whose sides are powers of two,
+     * or returns them as they are when they already are.
+     */
+    public static Color[][] pad(Color[][] pixels) {
+        int oldHeight = pixels.length;
+        int oldWidth = pixels[0].length;
+        int newHeight = nextPowerOfTwo(oldHeight);
+        int newWidth = nextPowerOfTwo(oldWidth);
+        if (oldWidth == newWidth && oldHeight == newHeight) {
+            return pixels;
+        }
+        Color[][] padded = new Color[newHeight][newWidth];
+        for (int i = 0; i < newHeight; i++) {
+            for (int j = 0; j < newWidth; j++) {
+                padded[i][j] = new Color(MAX_RGB, MAX_RGB, MAX_RGB);
+            }
+        }
+        int rowsToPad = (newHeight - oldHeight) / 2;
+        int columnsToPad = (newWidth - oldWidth) / 2;
+        for (int i = 0; i < oldHeight; i++) {
+            for (int j = 0; j < oldWidth; j++) {
+                padded[i + rowsToPad][j + columnsToPad] = pixels[i][j];
+            }
+        }
+        return padded;
+    }
+
+    /**
+     * Copies the sub images of a padded image, resolution of them in a row.
+     */
+    public static Color[][][][] subImages(Color[][] padded, int resolution) {
+        int size = padded[0].length / resolution;
+        int rows = padded.length / size;
+        Color[][][][] subImages = new Color[rows][resolution][][];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < resolution; column++) {
+                Color[][] subImage = new Color[size][size];
+                for (int i = 0; i < size; i++) {
+                    for (int j = 0; j < size; j++) {
+                        subImage[i][j] = padded[row * size + i][column * size + j];
+                    }
+                }
+                subImages[row][column] = subImage;
+            }
+        }
+        return subImages;
+    }
+
+    /**
+     * The average grey level of a sub image, between 0 and 1.
+     */
+    public static double brightness(Color[][] subImage) {
+        double result = 0;
+        for (Color[] row : subImage) {
+            for (Color color : row) {
+                result += color.getRed() * RED_MULTIPLIER + color.getGreen() * GREEN_MULTIPLIER +
+                        color.getBlue() * BLUE_MULTIPLIER;
+            }
+        }
+        result /= subImage.length * subImage[0].length;
+        return result / MAX_RGB;
+    }
+
+    /**
+     * The brightness of every sub image of a padded image.
+     */
+    public static double[][] brightnessGrid(Color[][] padded, int resolution) {
+        Color[][][][] subImages = subImages(padded, resolution);
+        double[][] brightness = new double[subImages.length][resolution];
+        for (int row = 0; row < subImages.length; row++) {
+            for (int column = 0; column < resolution; column++) {
+                brightness[row][column] = brightness(subImages[row][column]);
+            }
+        }
+        return brightness;
+    }
+
+    /**
+     * What the console output printed: every char followed by a space, a line per row.
+     */
+    public static String console(char[][] chars) {
+        StringBuilder printed = new StringBuilder();
+        for (char[] row : chars) {
+            for (char c : row) {
+                printed.append(c + " ");
+            }
+            printed.append(System.lineSeparator());
+        }
+        return printed.toString();
+    }
+
+    /**
+     * Writes the HTML file the HTML output wrote.
+     */
+    public static void html(char[][] chars, String filename, String fontName) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            writer.write(String.format(
+                "<!DOCTYPE html>\n"+
+                "<html>\n"+
+                "<body style=\""+
+                    "\tCOLOR:#000000;"+
+                    "\tTEXT-ALIGN:center;"+
+                    "\tFONT-SIZE:1px;\">\n"+
+                "<p style=\""+
+                    "\twhite-space:pre;"+
+                    "\tFONT-FAMILY:%s;"+
+                    "\tFONT-SIZE:%frem;"+
+                    "\tLETTER-SPACING:0.15em;"+
+                    "\tLINE-HEIGHT:%fem;\">\n",
+                    fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING));
+            for (char[] row : chars) {
+                for (char c : row) {
+                    String htmlRep;
+                    switch (c) {
+                        case '<': htmlRep = "&lt;";  break;
+                        case '>': htmlRep = "&gt;";  break;
+                        case '&': htmlRep = "&amp;"; break;
+                        default:  htmlRep = String.valueOf(c);
+                    }
+                    writer.write(htmlRep);
+                }
+                writer.newLine();
+            }
+            writer.write(
+                "</p>\n"+
+                "</body>\n"+
+                "</html>\n");
+        }
+    }
+
+    private static int nextPowerOfTwo(int n) {
+        int power = 1;
+        while (power < n) {
+            power *= 2;
+        }
+        return power;
+    }
+}
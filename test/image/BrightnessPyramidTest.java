@@ -0,0 +1,127 @@
+package image;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the brightness grids read from a {@link BrightnessPyramid} are the same as
+ * the ones measured tile by tile with {@link SubImage#calculateBrightness()} on the padded
+ * image, for every resolution the pyramid has.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class BrightnessPyramidTest {
+    /** Sizes that are not powers of two, padded on one or both sides, and some that are.*/
+    private static final int[][] SIZES = {
+            {37, 23}, {100, 61}, {200, 150}, {129, 65}, {300, 17}, {17, 300},
+            {64, 64}, {128, 32}, {255, 257}
+    };
+
+    private static final long SEED = 23;
+
+    @Test
+    void everyLevelMatchesTheSubImages() {
+        Random random = new Random(SEED);
+        for (int[] size : SIZES) {
+            Image image = randomImage(random, size[0], size[1]);
+            Image padded = new ImageProcessor().padToPowerOfTwo(image);
+            BrightnessPyramid pyramid = image.brightnessPyramid();
+            int levels = 0;
+            for (int tileSize = 2; tileSize <= Math.min(padded.getWidth(), padded.getHeight());
+                 tileSize *= 2) {
+                int resolution = padded.getWidth() / tileSize;
+                assertTrue(pyramid.hasResolution(resolution),
+                        size[0] + "x" + size[1] + " at resolution " + resolution);
+                assertGridEquals(measure(padded, resolution), pyramid.brightnessGrid(resolution),
+                        size[0] + "x" + size[1] + " at resolution " + resolution);
+                levels++;
+            }
+            assertTrue(levels > 0);
+        }
+    }
+
+    @Test
+    void aPyramidBuiltOnAPoolIsTheSame() {
+        Random random = new Random(SEED);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int[] size : SIZES) {
+                Image image = randomImage(random, size[0], size[1]);
+                BrightnessPyramid sequential = new BrightnessPyramid(image, null);
+                BrightnessPyramid parallel = new BrightnessPyramid(image, pool);
+                for (int resolution = 1; resolution <= size[0] * 2; resolution *= 2) {
+                    if (sequential.hasResolution(resolution)) {
+                        assertGridEquals(sequential.brightnessGrid(resolution),
+                                parallel.brightnessGrid(resolution),
+                                size[0] + "x" + size[1] + " at resolution " + resolution);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void resolutionsWithoutALevelAreReported() {
+        Image image = randomImage(new Random(SEED), 100, 61);
+        BrightnessPyramid pyramid = image.brightnessPyramid();
+        // padded to 128x64: single pixel tiles, tiles that are not a power of two and tiles
+        // taller than the image have no level
+        assertFalse(pyramid.hasResolution(128));
+        assertFalse(pyramid.hasResolution(3));
+        assertFalse(pyramid.hasResolution(1));
+        assertFalse(pyramid.hasResolution(0));
+        assertTrue(pyramid.hasResolution(2));
+    }
+
+    @Test
+    void aWhiteImageIsWhite() {
+        int[] raster = new int[45 * 20];
+        Arrays.fill(raster, Image.WHITE_ARGB);
+        BrightnessPyramid pyramid = new Image(raster, 45, 20).brightnessPyramid();
+        for (double[] row : pyramid.brightnessGrid(16)) {
+            for (double brightness : row) {
+                assertEquals(1.0, brightness);
+            }
+        }
+    }
+
+    /**
+     * Measures every sub image of a padded image the way the algorithm did before the
+     * pyramid existed.
+     */
+    static double[][] measure(Image padded, int resolution) {
+        ImageProcessor processor = new ImageProcessor();
+        double[][] brightness = new double[processor.subImageRows(padded, resolution)][resolution];
+        processor.forEachSubImage(padded, resolution,
+                (row, column, subImage) -> brightness[row][column] = subImage.calculateBrightness());
+        return brightness;
+    }
+
+    static void assertGridEquals(double[][] expected, double[][] actual, String message) {
+        assertEquals(expected.length, actual.length, message);
+        for (int row = 0; row < expected.length; row++) {
+            assertArrayEquals(expected[row], actual[row], message + ", row " + row);
+        }
+    }
+
+    /**
+     * An opaque image of random colors, so that no two tiles sum alike by chance.
+     */
+    static Image randomImage(Random random, int width, int height) {
+        int[] raster = new int[width * height];
+        for (int i = 0; i < raster.length; i++) {
+            raster[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return new Image(raster, width, height);
+    }
+}
@@ -0,0 +1,58 @@
+package image;
+
+import baseline.Baseline;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks that the padded view of an image holds the pixels of the white padded copy the
+ * {@link Baseline} made, and that padding is cached and skipped like before.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class ImageProcessorTest {
+    /** Padded on both axes, on one, with an odd number of pixels to add, and not at all.*/
+    private static final int[][] SIZES = {
+            {37, 23}, {100, 64}, {64, 61}, {129, 65}, {1, 3}, {3, 1}, {64, 64}, {1, 1}
+    };
+
+    private static final long SEED = 10;
+
+    @Test
+    void paddedViewsHoldTheCopiedPixels() {
+        Random random = new Random(SEED);
+        for (int[] size : SIZES) {
+            Color[][] pixels = Baseline.randomPixels(random, size[0], size[1]);
+            Color[][] expected = Baseline.pad(pixels);
+            Image padded = new ImageProcessor().padToPowerOfTwo(new Image(pixels, size[0], size[1]));
+            String message = size[0] + "x" + size[1];
+            assertEquals(expected.length, padded.getHeight(), message);
+            assertEquals(expected[0].length, padded.getWidth(), message);
+            for (int row = 0; row < expected.length; row++) {
+                for (int col = 0; col < expected[0].length; col++) {
+                    assertEquals(expected[row][col].getRGB(), padded.getRGB(row, col),
+                            message + ", pixel " + row + "," + col);
+                    assertEquals(expected[row][col], padded.getPixel(row, col),
+                            message + ", pixel " + row + "," + col);
+                }
+            }
+        }
+    }
+
+    @Test
+    void imagesThatNeedNoPaddingAreReturnedAsTheyAre() {
+        ImageProcessor processor = new ImageProcessor();
+        Image square = BrightnessPyramidTest.randomImage(new Random(SEED), 64, 32);
+        assertSame(square, processor.padToPowerOfTwo(square));
+        Image other = BrightnessPyramidTest.randomImage(new Random(SEED), 63, 32);
+        Image padded = processor.padToPowerOfTwo(other);
+        assertNotSame(other, padded);
+        assertSame(padded, processor.padToPowerOfTwo(other));
+    }
+}
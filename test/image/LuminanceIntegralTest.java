@@ -0,0 +1,73 @@
+package image;
+
+import baseline.Baseline;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the brightness of every sub image, read from the {@link LuminanceIntegral} of
+ * the image, is the one the {@link Baseline} sums pixel by pixel in doubles, and that any
+ * rectangle of the table sums the luminance of its pixels.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class LuminanceIntegralTest {
+    private static final int[][] SIZES = {{37, 23}, {200, 150}, {129, 65}, {64, 64}, {17, 300}};
+
+    /** The error of summing up to a million pixels in doubles, far below any char level.*/
+    private static final double TOLERANCE = 1e-9;
+    private static final int RECTANGLES = 500;
+    private static final long SEED = 2;
+
+    @Test
+    void subImagesMatchTheBaseline() {
+        Random random = new Random(SEED);
+        for (int[] size : SIZES) {
+            Color[][] pixels = Baseline.randomPixels(random, size[0], size[1]);
+            Color[][] expectedPadded = Baseline.pad(pixels);
+            Image padded = new ImageProcessor().padToPowerOfTwo(
+                    new Image(pixels, size[0], size[1]));
+            for (int resolution = 1; resolution <= padded.getWidth(); resolution *= 2) {
+                if (padded.getWidth() / resolution > padded.getHeight()) {
+                    continue;
+                }
+                double[][] expected = Baseline.brightnessGrid(expectedPadded, resolution);
+                int tile = padded.getWidth() / resolution;
+                assertEquals(expected.length, padded.getHeight() / tile);
+                for (int row = 0; row < expected.length; row++) {
+                    for (int column = 0; column < resolution; column++) {
+                        SubImage subImage = new SubImage(padded, row * tile, column * tile, tile);
+                        assertEquals(expected[row][column], subImage.calculateBrightness(), TOLERANCE,
+                                size[0] + "x" + size[1] + " at resolution " + resolution +
+                                        ", tile " + row + "," + column);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void rectanglesSumTheirPixels() {
+        Random random = new Random(SEED);
+        Image image = BrightnessPyramidTest.randomImage(random, 91, 57);
+        LuminanceIntegral integral = new LuminanceIntegral(image);
+        for (int i = 0; i < RECTANGLES; i++) {
+            int top = random.nextInt(image.getHeight() + 1);
+            int bottom = top + random.nextInt(image.getHeight() + 1 - top);
+            int left = random.nextInt(image.getWidth() + 1);
+            int right = left + random.nextInt(image.getWidth() + 1 - left);
+            long expected = 0;
+            for (int row = top; row < bottom; row++) {
+                for (int col = left; col < right; col++) {
+                    expected += SubImage.luminance(image.getRGB(row, col));
+                }
+            }
+            assertEquals(expected, integral.rectangleSum(top, left, bottom, right),
+                    "rows " + top + "-" + bottom + ", columns " + left + "-" + right);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package image;
+
+import baseline.Baseline;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the pixels read from the data buffer of a decoded image are the ones
+ * {@link BufferedImage#getRGB(int, int)} gives, opaque like the {@link Baseline} made them,
+ * for the layouts that are read directly, the ones that fall back to getRGB, images that
+ * are part of a larger one and images decoded from files.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class PixelDecoderTest {
+    private static final int[] TYPES = {
+            BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_INT_BGR,
+            BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_4BYTE_ABGR_PRE, BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_BYTE_BINARY,
+            BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_USHORT_565_RGB,
+            BufferedImage.TYPE_USHORT_555_RGB
+    };
+
+    private static final String[] FORMATS = {"png", "jpeg", "gif", "bmp"};
+    private static final int WIDTH = 45;
+    private static final int HEIGHT = 31;
+    private static final long SEED = 21;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void everyTypeIsReadLikeGetRGB() {
+        Random random = new Random(SEED);
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(random, type, WIDTH, HEIGHT);
+            assertDecodedLikeGetRGB(image, "type " + type);
+        }
+    }
+
+    @Test
+    void partsOfLargerImagesAreReadLikeGetRGB() {
+        Random random = new Random(SEED);
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(random, type, WIDTH + 20, HEIGHT + 10);
+            assertDecodedLikeGetRGB(image.getSubimage(7, 4, WIDTH, HEIGHT), "part of type " + type);
+        }
+    }
+
+    @Test
+    void decodedFilesAreReadLikeGetRGB() throws IOException {
+        Random random = new Random(SEED);
+        BufferedImage colors = randomImage(random, BufferedImage.TYPE_INT_RGB, WIDTH, HEIGHT);
+        BufferedImage grey = randomImage(random, BufferedImage.TYPE_BYTE_GRAY, WIDTH, HEIGHT);
+        BufferedImage alpha = randomImage(random, BufferedImage.TYPE_INT_ARGB, WIDTH, HEIGHT);
+        for (String format : FORMATS) {
+            assertFileDecodedLikeGetRGB(colors, format, "colors");
+            assertFileDecodedLikeGetRGB(grey, format, "grey");
+        }
+        assertFileDecodedLikeGetRGB(alpha, "png", "alpha");
+    }
+
+    private void assertFileDecodedLikeGetRGB(BufferedImage image, String format, String name)
+            throws IOException {
+        File file = directory.resolve(name + "." + format).toFile();
+        ImageIO.write(image, format, file);
+        BufferedImage decoded = ImageIO.read(file);
+        String message = file.getName() + " decoded as type " + decoded.getType();
+        assertDecodedLikeGetRGB(decoded, message);
+        assertImageEquals(Baseline.pixels(decoded), new Image(file.getPath()), message);
+    }
+
+    private static void assertDecodedLikeGetRGB(BufferedImage image, String message) {
+        Color[][] expected = Baseline.pixels(image);
+        assertImageEquals(expected, new Image(image), message);
+        PixelDecoder decoder = new PixelDecoder(image);
+        int[] luminance = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            decoder.readLuminanceRow(y, luminance);
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(SubImage.luminance(expected[y][x].getRGB()), luminance[x],
+                        message + ", luminance of pixel " + y + "," + x);
+            }
+        }
+    }
+
+    private static void assertImageEquals(Color[][] expected, Image actual, String message) {
+        assertEquals(expected.length, actual.getHeight(), message);
+        assertEquals(expected[0].length, actual.getWidth(), message);
+        for (int row = 0; row < expected.length; row++) {
+            for (int col = 0; col < expected[0].length; col++) {
+                assertEquals(expected[row][col].getRGB(), actual.getRGB(row, col),
+                        message + ", pixel " + row + "," + col);
+            }
+        }
+    }
+
+    /**
+     * An image of random colors, translucent ones too, stored in the given layout.
+     */
+    private static BufferedImage randomImage(Random random, int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,75 @@
+package image;
+
+import baseline.Baseline;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the sub images, views over their image, hold the pixels of the sub images
+ * the {@link Baseline} copied out of the padded image, whether they are made one by one,
+ * by {@link ImageProcessor#returnSubImages(Image, int)} or moved from tile to tile by
+ * {@link ImageProcessor#forEachSubImage(Image, int, SubImageConsumer)}.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class SubImageTest {
+    private static final int[][] SIZES = {{37, 23}, {100, 61}, {64, 64}, {17, 300}};
+    private static final double TOLERANCE = 1e-9;
+    private static final long SEED = 3;
+
+    @Test
+    void viewsHoldTheCopiedPixels() {
+        Random random = new Random(SEED);
+        ImageProcessor processor = new ImageProcessor();
+        for (int[] size : SIZES) {
+            Color[][] pixels = Baseline.randomPixels(random, size[0], size[1]);
+            Color[][] expectedPadded = Baseline.pad(pixels);
+            Image padded = processor.padToPowerOfTwo(new Image(pixels, size[0], size[1]));
+            for (int resolution = 1; resolution <= padded.getWidth(); resolution *= 2) {
+                if (padded.getWidth() / resolution > padded.getHeight()) {
+                    continue;
+                }
+                String message = size[0] + "x" + size[1] + " at resolution " + resolution;
+                Color[][][][] expected = Baseline.subImages(expectedPadded, resolution);
+                SubImage[][] subImages = processor.returnSubImages(padded, resolution);
+                assertEquals(expected.length, subImages.length, message);
+                assertEquals(expected.length, processor.subImageRows(padded, resolution), message);
+                for (int row = 0; row < expected.length; row++) {
+                    for (int column = 0; column < resolution; column++) {
+                        assertSubImageEquals(expected[row][column], subImages[row][column],
+                                message + ", tile " + row + "," + column);
+                    }
+                }
+                int[] visited = new int[1];
+                processor.forEachSubImage(padded, resolution, (row, column, subImage) -> {
+                    assertSubImageEquals(expected[row][column], subImage,
+                            message + ", visited tile " + row + "," + column);
+                    assertEquals(visited[0]++, row * expected[row].length + column, message);
+                });
+                assertEquals(expected.length * resolution, visited[0], message);
+            }
+        }
+    }
+
+    @Test
+    void copiedPixelsAreMeasuredLikeTheBaseline() {
+        Color[][] pixels = Baseline.randomPixels(new Random(SEED), 16, 16);
+        assertEquals(Baseline.brightness(pixels), new SubImage(pixels).calculateBrightness(),
+                TOLERANCE);
+    }
+
+    private static void assertSubImageEquals(Color[][] expected, SubImage actual, String message) {
+        assertEquals(expected.length, actual.getSize(), message);
+        for (int i = 0; i < expected.length; i++) {
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(expected[i][j].getRGB(), actual.getRGB(i, j),
+                        message + ", pixel " + i + "," + j);
+            }
+        }
+        assertEquals(Baseline.brightness(expected), actual.calculateBrightness(), TOLERANCE, message);
+    }
+}
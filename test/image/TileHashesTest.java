@@ -0,0 +1,75 @@
+package image;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link TileHashes} finds exactly the sub images that changed, and measures
+ * them like {@link SubImage#calculateBrightness()} on the padded image.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class TileHashesTest {
+    private static final int[][] SIZES = {{37, 23}, {200, 150}, {129, 65}, {64, 64}};
+    private static final int[] RESOLUTIONS = {2, 4, 16, 32};
+    private static final long SEED = 25;
+
+    @Test
+    void brightnessMatchesTheSubImages() {
+        Random random = new Random(SEED);
+        for (int[] size : SIZES) {
+            Image image = BrightnessPyramidTest.randomImage(random, size[0], size[1]);
+            Image padded = new ImageProcessor().padToPowerOfTwo(image);
+            for (int resolution : RESOLUTIONS) {
+                if (resolution > padded.getWidth()) {
+                    continue;
+                }
+                TileHashes hashes = new TileHashes(image, resolution);
+                boolean[] all = new boolean[hashes.rows() * resolution];
+                Arrays.fill(all, true);
+                BrightnessPyramidTest.assertGridEquals(
+                        BrightnessPyramidTest.measure(padded, resolution),
+                        hashes.brightnessGrid(image, all),
+                        size[0] + "x" + size[1] + " at resolution " + resolution);
+            }
+        }
+    }
+
+    @Test
+    void onlyTheTileOfAChangedPixelChanges() {
+        Random random = new Random(SEED);
+        Image before = BrightnessPyramidTest.randomImage(random, 200, 150);
+        int[] raster = before.raster().clone();
+        // padded to 256x256 at resolution 16: 16 pixel tiles, 28 columns of padding on the
+        // left and 53 rows on top, so pixel (x 100, y 40) lies in tile (5, 8)
+        raster[40 * 200 + 100] ^= 0x010101;
+        Image after = new Image(raster, 200, 150);
+        boolean[] changed = new TileHashes(after, 16).changedSince(new TileHashes(before, 16));
+        boolean[] expected = new boolean[changed.length];
+        expected[5 * 16 + 8] = true;
+        assertArrayEquals(expected, changed);
+    }
+
+    @Test
+    void everyTileChangesWithoutAPreviousFrame() {
+        Image image = BrightnessPyramidTest.randomImage(new Random(SEED), 37, 23);
+        TileHashes hashes = new TileHashes(image, 4);
+        for (boolean changed : hashes.changedSince(null)) {
+            assertTrue(changed);
+        }
+        Image wider = BrightnessPyramidTest.randomImage(new Random(SEED), 38, 23);
+        TileHashes other = new TileHashes(wider, 4);
+        for (boolean changed : hashes.changedSince(other)) {
+            assertTrue(changed);
+        }
+        for (boolean changed : hashes.changedSince(new TileHashes(image, 4))) {
+            assertFalse(changed);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package image_char_matching;
+
+import ascii_art.RoundingMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the lookups of {@link CharsetSnapshot}, with and without lookup tables, against
+ * a linear scan of the brightness map of the matcher, on random charsets and on the
+ * brightness values where the answer changes.
+ * @author Ishay Shaul
+ * @author Maoz Bar Shimon
+ */
+class CharsetSnapshotTest {
+    private static final int CHARSETS = 50;
+    private static final int MIN_CHARS = 3;
+    private static final int MAX_CHARS = 40;
+    private static final char FIRST_CHAR = ' ';
+    private static final char LAST_CHAR = '~';
+    private static final int RANDOM_PROBES = 200;
+    private static final int[] BUCKETS = {0, 64, 4096};
+    private static final long SEED = 16;
+
+    @Test
+    void lookupsMatchALinearScan() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CHARSETS; i++) {
+            SubImgCharMatcher matcher = new SubImgCharMatcher(randomCharset(random));
+            SortedMap<Character, Double> map = matcher.getCharBrightnessMap();
+            CharsetSnapshot[] snapshots = new CharsetSnapshot[BUCKETS.length];
+            for (int k = 0; k < BUCKETS.length; k++) {
+                matcher.setLookupTableBuckets(BUCKETS[k]);
+                snapshots[k] = matcher.snapshot();
+            }
+            for (double brightness : probes(random, map)) {
+                for (RoundingMode mode : RoundingMode.values()) {
+                    char expected = scan(map, brightness, mode);
+                    for (int k = 0; k < BUCKETS.length; k++) {
+                        assertEquals(expected, snapshots[k].getCharByImageBrightness(brightness, mode),
+                                map.keySet() + " at " + brightness + " " + mode + ", " +
+                                        BUCKETS[k] + " buckets");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void aSnapshotIgnoresLaterChanges() {
+        SubImgCharMatcher matcher = new SubImgCharMatcher("0123456789".toCharArray());
+        CharsetSnapshot snapshot = matcher.snapshot();
+        char[] before = lookAll(snapshot);
+        matcher.addCharRange('a', 'z');
+        matcher.removeChar('0');
+        assertEquals(new String(before), new String(lookAll(snapshot)));
+        assertEquals("0123456789", new String(snapshot.getChars()));
+    }
+
+    private static char[] lookAll(CharsetSnapshot snapshot) {
+        int steps = 1000;
+        char[] chars = new char[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            chars[i] = snapshot.getCharByImageBrightness((double) i / steps, RoundingMode.ABS);
+        }
+        return chars;
+    }
+
+    /**
+     * The specification of the lookup: the closest level on the requested side, the lowest
+     * char among equally close ones, and ABS when the side is empty.
+     */
+    private static char scan(SortedMap<Character, Double> map, double brightness,
+                             RoundingMode mode) {
+        if (mode != RoundingMode.ABS) {
+            char onSide = closest(map, brightness, mode);
+            if (onSide != 0) {
+                return onSide;
+            }
+        }
+        return closest(map, brightness, RoundingMode.ABS);
+    }
+
+    private static char closest(SortedMap<Character, Double> map, double brightness,
+                                RoundingMode mode) {
+        char best = 0;
+        double bestDiff = Double.POSITIVE_INFINITY;
+        for (Map.Entry<Character, Double> entry : map.entrySet()) {
+            double level = entry.getValue();
+            if (Double.isNaN(level) || (mode == RoundingMode.UP && level < brightness) ||
+                    (mode == RoundingMode.DOWN && level > brightness)) {
+                continue;
+            }
+            double diff = Math.abs(level - brightness);
+            if (diff < bestDiff) {
+                best = entry.getKey();
+                bestDiff = diff;
+            }
+        }
+        return best;
+    }
+
+    private static char[] randomCharset(Random random) {
+        int size = MIN_CHARS + random.nextInt(MAX_CHARS - MIN_CHARS + 1);
+        StringBuilder chars = new StringBuilder();
+        while (chars.length() < size) {
+            char c = (char) (FIRST_CHAR + random.nextInt(LAST_CHAR - FIRST_CHAR + 1));
+            if (chars.indexOf(String.valueOf(c)) < 0) {
+                chars.append(c);
+            }
+        }
+        return chars.toString().toCharArray();
+    }
+
+    /**
+     * Brightness values to look up: random ones, the range ends and beyond, every level,
+     * its neighbours and the midpoints between levels, where ties happen, and the edges of
+     * lookup table buckets.
+     */
+    private static List<Double> probes(Random random, SortedMap<Character, Double> map) {
+        List<Double> probes = new ArrayList<>();
+        for (int i = 0; i < RANDOM_PROBES; i++) {
+            probes.add(random.nextDouble());
+        }
+        probes.add(0.0);
+        probes.add(1.0);
+        probes.add(-0.25);
+        probes.add(1.25);
+        for (double level : map.values()) {
+            probes.add(level);
+            probes.add(Math.nextUp(level));
+            probes.add(Math.nextDown(level));
+            for (double other : map.values()) {
+                probes.add((level + other) / 2);
+            }
+        }
+        for (int buckets : BUCKETS) {
+            for (int bucket = 1; bucket <= buckets; bucket++) {
+                double edge = (double) bucket / buckets;
+                probes.add(edge);
+                probes.add(Math.nextDown(edge));
+            }
+        }
+        return probes;
+    }
+}